@@ -0,0 +1,193 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local TCP relay towards a server, counting the bytes exchanged in both directions. Lets
+ * {@link MantisBenchmark} measure the traffic of any backend without knowing its HTTP client. TLS cannot be relayed
+ * under a different host name, so for HTTPS the relay acts as a proxy instead: it reads the HTTP
+ * <code>CONNECT</code> request of the client and tunnels the connection to the server it names. The bytes of the
+ * <code>CONNECT</code> exchange itself are not counted.
+ *
+ * @since 0.5
+ */
+final class ByteCountingRelay {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ByteCountingRelay.class);
+
+  private final String host;
+  private final int port;
+  private final ServerSocket server;
+  private final AtomicLong bytes = new AtomicLong();
+
+  /**
+   * Relays every connection to the given server.
+   */
+  ByteCountingRelay(String host, int port) throws IOException {
+    this.host = host;
+    this.port = port;
+    this.server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    Thread acceptor = new Thread(new Runnable() {
+      public void run() {
+        accept();
+      }
+    }, "mantis-relay");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Tunnels every connection to the server named by its <code>CONNECT</code> request.
+   */
+  ByteCountingRelay() throws IOException {
+    this(null, -1);
+  }
+
+  int getLocalPort() {
+    return server.getLocalPort();
+  }
+
+  /**
+   * @return the bytes exchanged since the previous call
+   */
+  long takeBytes() {
+    return bytes.getAndSet(0);
+  }
+
+  void close() {
+    try {
+      server.close();
+    } catch (IOException e) {
+      LOG.debug("Unable to close the relay", e);
+    }
+  }
+
+  private void accept() {
+    while (!server.isClosed()) {
+      Socket client = null;
+      try {
+        client = server.accept();
+        Socket upstream = host != null ? new Socket(host, port) : tunnel(client);
+        AtomicInteger open = new AtomicInteger(2);
+        pump(client, upstream, open);
+        pump(upstream, client, open);
+      } catch (IOException e) {
+        if (!server.isClosed()) {
+          LOG.warn("Unable to relay a connection to " + (host != null ? host + ":" + port : "a proxied server"), e);
+        }
+        closeQuietly(client);
+      }
+    }
+  }
+
+  /**
+   * Reads the <code>CONNECT host:port</code> request of a proxy client, connects to that server and answers the
+   * client that the tunnel is open.
+   */
+  private static Socket tunnel(Socket client) throws IOException {
+    InputStream in = client.getInputStream();
+    OutputStream out = client.getOutputStream();
+    String requestLine = readLine(in);
+    String[] request = requestLine.split(" ");
+    int colon = request.length > 1 ? request[1].lastIndexOf(':') : -1;
+    if (!"CONNECT".equals(request[0]) || colon <= 0) {
+      out.write("HTTP/1.1 405 Method Not Allowed\r\nContent-Length: 0\r\n\r\n".getBytes("US-ASCII"));
+      out.flush();
+      throw new IOException("Unexpected proxy request: " + requestLine);
+    }
+    while (readLine(in).length() > 0) {
+      // headers skipped
+    }
+    Socket upstream = new Socket(request[1].substring(0, colon), Integer.parseInt(request[1].substring(colon + 1)));
+    out.write("HTTP/1.1 200 Connection established\r\n\r\n".getBytes("US-ASCII"));
+    out.flush();
+    return upstream;
+  }
+
+  /**
+   * Reads a header line one byte at a time, so that nothing after the headers is consumed.
+   */
+  private static String readLine(InputStream in) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int c;
+    while ((c = in.read()) >= 0 && c != '\n') {
+      if (c != '\r') {
+        line.append((char) c);
+      }
+    }
+    if (c < 0) {
+      throw new IOException("Proxy request ended early");
+    }
+    return line.toString();
+  }
+
+  /**
+   * Copies one direction of a connection, both sockets being closed once the two directions are done.
+   */
+  private void pump(final Socket from, final Socket to, final AtomicInteger open) {
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        byte[] buffer = new byte[8192];
+        try {
+          InputStream in = from.getInputStream();
+          OutputStream out = to.getOutputStream();
+          int read;
+          while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+            bytes.addAndGet(read);
+          }
+          to.shutdownOutput();
+          if (open.decrementAndGet() > 0) {
+            return;
+          }
+        } catch (IOException e) {
+          LOG.debug("Relayed connection closed", e);
+        }
+        closeQuietly(from);
+        closeQuietly(to);
+      }
+    }, "mantis-relay-pump");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static void closeQuietly(Socket socket) {
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // already closed
+      }
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.sonar.api.measures.CountDistributionBuilder;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.measures.Metric;
+
+/**
+ * Extrapolates counts of issues from an {@link IssueSample}. Each page read is a cluster of issues: Mantis sorts
+ * the issues by last update, so the issues of a page look alike and the bounds are computed from the spread
+ * between the pages rather than between the issues (ratio estimator of cluster sampling).
+ *
+ * @since 0.5
+ */
+final class ClusterEstimator {
+
+  /**
+   * Quantile of the normal distribution for 95% confidence bounds.
+   */
+  private static final double Z = 1.96;
+
+  private final IssueSample sample;
+  private final int[] pageOf;
+  private final int[] pageSizes;
+  private final Map<Metric, Map<Object, int[]>> counts = new LinkedHashMap<Metric, Map<Object, int[]>>();
+
+  ClusterEstimator(IssueSample sample) {
+    this.sample = sample;
+    this.pageOf = new int[sample.getIssues().length];
+    this.pageSizes = new int[sample.getPagesRead()];
+    int start = 0;
+    for (int page = 0; page < pageSizes.length; page++) {
+      int end = sample.getPageEnd(page);
+      for (int i = start; i < end; i++) {
+        pageOf[i] = page;
+      }
+      pageSizes[page] = end - start;
+      start = end;
+    }
+  }
+
+  int getTotal() {
+    return sample.getTotal();
+  }
+
+  /**
+   * Makes a key appear in the distribution even if no issue of the sample has it.
+   */
+  void declare(Metric metric, Comparable<?> key) {
+    pageCounts(metric, key);
+  }
+
+  /**
+   * @param index index of the issue in the sample
+   */
+  void add(Metric metric, Comparable<?> key, int index) {
+    pageCounts(metric, key)[pageOf[index]]++;
+  }
+
+  private int[] pageCounts(Metric metric, Object key) {
+    Map<Object, int[]> keys = counts.get(metric);
+    if (keys == null) {
+      keys = new TreeMap<Object, int[]>();
+      counts.put(metric, keys);
+    }
+    int[] byPage = keys.get(key);
+    if (byPage == null) {
+      byPage = new int[pageSizes.length];
+      keys.put(key, byPage);
+    }
+    return byPage;
+  }
+
+  /**
+   * @param max number of keys kept, the others being grouped under otherKey; zero or less to keep them all
+   * @return the estimated distribution, valued with the total number of issues
+   */
+  Measure distribution(Metric metric, int max, Object otherKey) {
+    CountDistributionBuilder builder = new CountDistributionBuilder(metric);
+    List<Map.Entry<Object, long[]>> estimates = new ArrayList<Map.Entry<Object, long[]>>(estimates(metric).entrySet());
+    if (max > 0 && estimates.size() > max) {
+      Collections.sort(estimates, new Comparator<Map.Entry<Object, long[]>>() {
+        public int compare(Map.Entry<Object, long[]> a, Map.Entry<Object, long[]> b) {
+          return a.getValue()[0] > b.getValue()[0] ? -1 : (a.getValue()[0] < b.getValue()[0] ? 1 : 0);
+        }
+      });
+      long shown = 0;
+      for (Map.Entry<Object, long[]> estimate : estimates.subList(0, max)) {
+        shown += estimate.getValue()[0];
+      }
+      estimates = estimates.subList(0, max);
+      builder.add(otherKey, (int) Math.max(0, getTotal() - shown));
+    }
+    for (Map.Entry<Object, long[]> estimate : estimates) {
+      builder.add(estimate.getKey(), (int) estimate.getValue()[0]);
+    }
+    return builder.build().setValue((double) getTotal());
+  }
+
+  /**
+   * @return the sum of the estimated counts of the keys of a metric
+   */
+  long sum(Metric metric) {
+    long sum = 0;
+    for (long[] estimate : estimates(metric).values()) {
+      sum += estimate[0];
+    }
+    return sum;
+  }
+
+  /**
+   * @return the confidence bounds of every estimated count, formatted as metric.key=lower-upper;...
+   */
+  String bounds() {
+    StringBuilder data = new StringBuilder();
+    for (Metric metric : counts.keySet()) {
+      for (Map.Entry<Object, long[]> estimate : estimates(metric).entrySet()) {
+        if (data.length() > 0) {
+          data.append(';');
+        }
+        data.append(metric.getKey()).append('.').append(estimate.getKey()).append('=')
+            .append(estimate.getValue()[1]).append('-').append(estimate.getValue()[2]);
+      }
+    }
+    return data.toString();
+  }
+
+  /**
+   * @return for each key of a metric, its estimated count, lower bound and upper bound
+   */
+  private Map<Object, long[]> estimates(Metric metric) {
+    Map<Object, long[]> estimates = new LinkedHashMap<Object, long[]>();
+    Map<Object, int[]> keys = counts.get(metric);
+    if (keys != null) {
+      for (Map.Entry<Object, int[]> key : keys.entrySet()) {
+        estimates.put(key.getKey(), estimate(key.getValue()));
+      }
+    }
+    return estimates;
+  }
+
+  long[] estimate(int[] byPage) {
+    int total = getTotal();
+    int sampled = pageOf.length;
+    int pages = pageSizes.length;
+    long count = 0;
+    for (int c : byPage) {
+      count += c;
+    }
+    if (sampled == 0) {
+      return new long[] {0, 0, total};
+    }
+    // issues of the sample are certain, whatever the issues not read
+    long min = count;
+    long max = Math.max(min, total - (sampled - count));
+    double ratio = (double) count / sampled;
+    long estimate = Math.min(max, Math.max(min, Math.round(total * ratio)));
+    if (pages < 2) {
+      return new long[] {estimate, min, max};
+    }
+    double spread = 0;
+    for (int page = 0; page < pages; page++) {
+      double deviation = byPage[page] - ratio * pageSizes[page];
+      spread += deviation * deviation;
+    }
+    double meanPageSize = (double) sampled / pages;
+    double finite = Math.max(0, 1 - (double) pages / sample.getPageCount());
+    double error = Z * total * Math.sqrt(finite * spread / (pages - 1) / (pages * meanPageSize * meanPageSize));
+    return new long[] {estimate, Math.max(min, (long) Math.floor(estimate - error)), Math.min(max, (long) Math.ceil(estimate + error))};
+  }
+}
@@ -0,0 +1,392 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.futureware.mantis.rpc.soap.client.AccountData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+import biz.futureware.mantis.rpc.soap.client.IssueNoteData;
+import biz.futureware.mantis.rpc.soap.client.ObjectRef;
+
+/**
+ * Local journal of the pages read by a fetch, so that a fetch that failed can be resumed from its last good page
+ * by an analysis started shortly after. The file starts with a header identifying the fetch (server, project,
+ * filter and page size), followed by one record per page: page number, length and the fields of the issues read
+ * by the plugin, in a fixed binary format. A record cut by a crash, or whose length does not fit in the file, is
+ * dropped. The journal is deleted once the fetch completes.
+ * <p>
+ * The file is locked while the journal is open: a second analysis of the same fetch keeps no journal rather than
+ * mixing its pages with the first one.
+ * <p>
+ * The journal never fails a fetch: on any I/O error it is disabled and the fetch goes on.
+ *
+ * @since 0.5
+ */
+public class FetchJournal {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FetchJournal.class);
+
+  private static final int MAGIC = 0x4d4a4e4c;
+  private static final int VERSION = 2;
+
+  private final File file;
+  private final String key;
+  private final long windowMillis;
+  private RandomAccessFile output;
+  private boolean disabled;
+
+  /**
+   * @param key identifies the fetch, a journal written with another key is not resumed
+   * @param windowMillis maximum age of the last page of a journal for it to be resumed
+   */
+  public FetchJournal(File file, String key, long windowMillis) {
+    this.file = file;
+    this.key = key;
+    this.windowMillis = windowMillis;
+  }
+
+  /**
+   * Reads the pages of a previous fetch and opens the journal for the following pages. Must be called before
+   * {@link #append(int, IssueData[])}.
+   *
+   * @return the pages already read, in order, starting at page 1
+   */
+  public List<IssueData[]> resume(int pageSize) {
+    List<IssueData[]> pages = new ArrayList<IssueData[]>();
+    try {
+      boolean recent = file.exists() && System.currentTimeMillis() - file.lastModified() <= windowMillis;
+      File parent = file.getParentFile();
+      if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Unable to create " + parent);
+      }
+      output = new RandomAccessFile(file, "rw");
+      if (!lock()) {
+        LOG.warn("The Mantis fetch journal {} is used by another analysis, no journal is kept", file);
+        disabled = true;
+        close();
+        return Collections.emptyList();
+      }
+      long end = recent ? read(output, pageSize, pages) : -1;
+      if (end < 0) {
+        pages = Collections.emptyList();
+        output.setLength(0);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeUTF(key);
+        output.writeInt(pageSize);
+      } else {
+        output.setLength(end);
+        output.seek(end);
+      }
+    } catch (IOException e) {
+      disable("Unable to open the Mantis fetch journal " + file, e);
+      return Collections.emptyList();
+    }
+    return pages;
+  }
+
+  /**
+   * @return false if another journal, of this process or another one, holds the file
+   */
+  private boolean lock() throws IOException {
+    try {
+      FileLock lock = output.getChannel().tryLock();
+      return lock != null;
+    } catch (OverlappingFileLockException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return the length of the valid part of the journal, -1 if it cannot be resumed
+   */
+  private long read(RandomAccessFile input, int pageSize, List<IssueData[]> pages) throws IOException {
+    try {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION || !key.equals(input.readUTF()) || input.readInt() != pageSize) {
+        return -1;
+      }
+    } catch (IOException e) {
+      LOG.debug("Invalid header in the Mantis fetch journal", e);
+      return -1;
+    }
+    long end = input.getFilePointer();
+    try {
+      while (true) {
+        int page = input.readInt();
+        int length = input.readInt();
+        if (length < 0 || length > input.length() - input.getFilePointer()) {
+          LOG.debug("Invalid record length {} in the Mantis fetch journal", length);
+          break;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        if (page != pages.size() + 1) {
+          break;
+        }
+        pages.add(readIssues(bytes));
+        end = input.getFilePointer();
+      }
+    } catch (EOFException e) {
+      // last record cut by a crash
+    } catch (IOException e) {
+      LOG.debug("Invalid record in the Mantis fetch journal", e);
+    }
+    return end;
+  }
+
+  public void append(int page, IssueData[] issues) {
+    if (output == null) {
+      return;
+    }
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream data = new DataOutputStream(bytes);
+      writeIssues(data, issues);
+      data.close();
+      ByteArrayOutputStream record = new ByteArrayOutputStream(bytes.size() + 8);
+      data = new DataOutputStream(record);
+      data.writeInt(page);
+      data.writeInt(bytes.size());
+      bytes.writeTo(data);
+      data.close();
+      output.write(record.toByteArray());
+    } catch (IOException e) {
+      disable("Unable to write the Mantis fetch journal " + file, e);
+    }
+  }
+
+  /**
+   * Closes the journal and keeps it, so that the next fetch can resume.
+   */
+  public void close() {
+    if (output != null) {
+      try {
+        // releases the lock too
+        output.close();
+      } catch (IOException e) {
+        LOG.debug("Unable to close the Mantis fetch journal", e);
+      }
+      output = null;
+    }
+  }
+
+  /**
+   * Closes and deletes the journal once the fetch is complete.
+   */
+  public void complete() {
+    if (output == null) {
+      return;
+    }
+    close();
+    if (file.exists() && !file.delete()) {
+      LOG.warn("Unable to delete the Mantis fetch journal {}", file);
+    }
+  }
+
+  public boolean isDisabled() {
+    return disabled;
+  }
+
+  private void disable(String message, IOException e) {
+    LOG.warn(message, e);
+    disabled = true;
+    close();
+  }
+
+  private static void writeIssues(DataOutputStream output, IssueData[] issues) throws IOException {
+    output.writeInt(issues.length);
+    for (IssueData issue : issues) {
+      writeInteger(output, issue.getId());
+      writeString(output, issue.getSummary());
+      writeString(output, issue.getCategory());
+      writeString(output, issue.getVersion());
+      writeString(output, issue.getFixed_in_version());
+      writeString(output, issue.getTarget_version());
+      writeRef(output, issue.getProject());
+      writeRef(output, issue.getPriority());
+      writeRef(output, issue.getSeverity());
+      writeRef(output, issue.getStatus());
+      writeRef(output, issue.getReproducibility());
+      writeRef(output, issue.getResolution());
+      writeAccount(output, issue.getReporter());
+      writeAccount(output, issue.getHandler());
+      writeDate(output, issue.getDate_submitted());
+      writeDate(output, issue.getLast_updated());
+      IssueNoteData[] notes = issue.getNotes();
+      output.writeInt(notes != null ? notes.length : -1);
+      if (notes != null) {
+        for (IssueNoteData note : notes) {
+          writeInteger(output, note.getId());
+          writeAccount(output, note.getReporter());
+          writeString(output, note.getText());
+          writeRef(output, note.getView_state());
+          writeDate(output, note.getDate_submitted());
+          writeDate(output, note.getLast_modified());
+        }
+      }
+    }
+  }
+
+  private static IssueData[] readIssues(byte[] bytes) throws IOException {
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+    IssueData[] issues = new IssueData[readLength(input.readInt(), bytes.length)];
+    for (int i = 0; i < issues.length; i++) {
+      IssueData issue = new IssueData();
+      issue.setId(readInteger(input));
+      issue.setSummary(readString(input, bytes.length));
+      issue.setCategory(readString(input, bytes.length));
+      issue.setVersion(readString(input, bytes.length));
+      issue.setFixed_in_version(readString(input, bytes.length));
+      issue.setTarget_version(readString(input, bytes.length));
+      issue.setProject(readRef(input, bytes.length));
+      issue.setPriority(readRef(input, bytes.length));
+      issue.setSeverity(readRef(input, bytes.length));
+      issue.setStatus(readRef(input, bytes.length));
+      issue.setReproducibility(readRef(input, bytes.length));
+      issue.setResolution(readRef(input, bytes.length));
+      issue.setReporter(readAccount(input, bytes.length));
+      issue.setHandler(readAccount(input, bytes.length));
+      issue.setDate_submitted(readDate(input));
+      issue.setLast_updated(readDate(input));
+      int noteCount = input.readInt();
+      if (noteCount != -1) {
+        IssueNoteData[] notes = new IssueNoteData[readLength(noteCount, bytes.length)];
+        for (int j = 0; j < notes.length; j++) {
+          notes[j] = new IssueNoteData();
+          notes[j].setId(readInteger(input));
+          notes[j].setReporter(readAccount(input, bytes.length));
+          notes[j].setText(readString(input, bytes.length));
+          notes[j].setView_state(readRef(input, bytes.length));
+          notes[j].setDate_submitted(readDate(input));
+          notes[j].setLast_modified(readDate(input));
+        }
+        issue.setNotes(notes);
+      }
+      issues[i] = issue;
+    }
+    return issues;
+  }
+
+  private static void writeInteger(DataOutputStream output, BigInteger value) throws IOException {
+    output.writeBoolean(value != null);
+    if (value != null) {
+      output.writeLong(value.longValue());
+    }
+  }
+
+  private static BigInteger readInteger(DataInputStream input) throws IOException {
+    return input.readBoolean() ? BigInteger.valueOf(input.readLong()) : null;
+  }
+
+  /**
+   * Strings are written as UTF-8 bytes after their length, -1 for null: the notes may be longer than what
+   * {@link DataOutputStream#writeUTF(String)} accepts.
+   */
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    if (value == null) {
+      output.writeInt(-1);
+    } else {
+      byte[] bytes = value.getBytes("UTF-8");
+      output.writeInt(bytes.length);
+      output.write(bytes);
+    }
+  }
+
+  private static String readString(DataInputStream input, int max) throws IOException {
+    int length = input.readInt();
+    if (length == -1) {
+      return null;
+    }
+    byte[] bytes = new byte[readLength(length, max)];
+    input.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  private static int readLength(int length, int max) throws IOException {
+    if (length < 0 || length > max) {
+      throw new IOException("Invalid length: " + length);
+    }
+    return length;
+  }
+
+  private static void writeRef(DataOutputStream output, ObjectRef ref) throws IOException {
+    output.writeBoolean(ref != null);
+    if (ref != null) {
+      writeInteger(output, ref.getId());
+      writeString(output, ref.getName());
+    }
+  }
+
+  private static ObjectRef readRef(DataInputStream input, int max) throws IOException {
+    return input.readBoolean() ? new ObjectRef(readInteger(input), readString(input, max)) : null;
+  }
+
+  private static void writeAccount(DataOutputStream output, AccountData account) throws IOException {
+    output.writeBoolean(account != null);
+    if (account != null) {
+      writeInteger(output, account.getId());
+      writeString(output, account.getName());
+      writeString(output, account.getReal_name());
+      writeString(output, account.getEmail());
+    }
+  }
+
+  private static AccountData readAccount(DataInputStream input, int max) throws IOException {
+    if (!input.readBoolean()) {
+      return null;
+    }
+    return new AccountData(readInteger(input), readString(input, max), readString(input, max), readString(input, max));
+  }
+
+  private static void writeDate(DataOutputStream output, Calendar date) throws IOException {
+    output.writeBoolean(date != null);
+    if (date != null) {
+      output.writeLong(date.getTimeInMillis());
+    }
+  }
+
+  private static Calendar readDate(DataInputStream input) throws IOException {
+    if (!input.readBoolean()) {
+      return null;
+    }
+    Calendar date = Calendar.getInstance();
+    date.setTimeInMillis(input.readLong());
+    return date;
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.Map;
+
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+
+/**
+ * Issues read from Mantis for one analysis.
+ *
+ * @since 0.5
+ */
+public class FetchedIssues {
+
+  private final BigInteger projectId;
+  private final IssueData[] issues;
+  private final Map<BigInteger, IssueData> details;
+  private final IssueSample sample;
+
+  public FetchedIssues(BigInteger projectId, IssueData[] issues) {
+    this(projectId, issues, Collections.<BigInteger, IssueData>emptyMap());
+  }
+
+  /**
+   * @param details issues read one by one with their notes, by id
+   */
+  public FetchedIssues(BigInteger projectId, IssueData[] issues, Map<BigInteger, IssueData> details) {
+    this.projectId = projectId;
+    this.issues = issues;
+    this.details = details;
+    this.sample = null;
+  }
+
+  /**
+   * @param sample random pages of the issues, the measures being extrapolated from them
+   */
+  public FetchedIssues(BigInteger projectId, IssueSample sample, Map<BigInteger, IssueData> details) {
+    this.projectId = projectId;
+    this.issues = sample.getIssues();
+    this.details = details;
+    this.sample = sample;
+  }
+
+  public BigInteger getProjectId() {
+    return projectId;
+  }
+
+  public IssueData[] getIssues() {
+    return issues;
+  }
+
+  /**
+   * @return the sample the issues come from, null if every issue was read
+   */
+  public IssueSample getSample() {
+    return sample;
+  }
+
+  /**
+   * @return the issue read with its notes, null if its details were not needed
+   */
+  public IssueData getDetails(BigInteger id) {
+    return details.get(id);
+  }
+}
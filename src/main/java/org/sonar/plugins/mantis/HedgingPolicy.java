@@ -0,0 +1,169 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends a second copy of a request when the first one is slower than a percentile of the latencies seen so far,
+ * and keeps whichever answers first. The number of hedged requests is capped to a fraction of all the requests,
+ * so that a slow server does not receive twice the load. One policy tracks the latencies of one fetch.
+ *
+ * @since 0.5
+ */
+public class HedgingPolicy {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HedgingPolicy.class);
+
+  /**
+   * Number of requests timed before the first hedge.
+   */
+  static final int MIN_SAMPLES = 5;
+
+  private static final int MAX_SAMPLES = 128;
+
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "mantis-hedge");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final double percentile;
+  private final double maxRate;
+  private final long[] latencies = new long[MAX_SAMPLES];
+  private int samples;
+  private int requests;
+  private int hedges;
+
+  /**
+   * @param percentile latency percentile after which a request is hedged, between 0 and 100
+   * @param maxRate maximum fraction of the requests that are hedged
+   */
+  public HedgingPolicy(double percentile, double maxRate) {
+    this.percentile = Math.max(0, Math.min(100, percentile));
+    this.maxRate = maxRate;
+  }
+
+  /**
+   * Runs the request, hedged if it is too slow.
+   */
+  public <T> T call(Callable<T> request) throws RemoteException {
+    CompletionService<T> completion = new ExecutorCompletionService<T>(EXECUTOR);
+    long start = System.nanoTime();
+    long hedgeStart = 0;
+    Future<T> first = completion.submit(request);
+    Future<T> second = null;
+    try {
+      long delay = startRequest();
+      Future<T> done = delay < 0 ? null : completion.poll(delay, TimeUnit.NANOSECONDS);
+      if (done == null && delay >= 0 && tryHedge()) {
+        LOG.debug("Request slower than {} ms, sending it again", TimeUnit.NANOSECONDS.toMillis(delay));
+        hedgeStart = System.nanoTime();
+        second = completion.submit(request);
+      }
+      if (done == null) {
+        done = completion.take();
+      }
+      try {
+        T result = done.get();
+        record(System.nanoTime() - (done == second ? hedgeStart : start));
+        return result;
+      } catch (ExecutionException e) {
+        if (second == null) {
+          throw e;
+        }
+        LOG.debug("Hedged request failed, waiting for the other one", e.getCause());
+        done = completion.take();
+        T result = done.get();
+        record(System.nanoTime() - (done == second ? hedgeStart : start));
+        return result;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Interrupted while waiting for Mantis", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RemoteException) {
+        throw (RemoteException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RemoteException("Error requesting Mantis", e.getCause());
+    } finally {
+      first.cancel(true);
+      if (second != null) {
+        second.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * @return the delay after which the request may be hedged in nanoseconds, -1 if there are not enough samples
+   */
+  private synchronized long startRequest() {
+    requests++;
+    if (samples < MIN_SAMPLES) {
+      return -1;
+    }
+    int count = Math.min(samples, MAX_SAMPLES);
+    long[] sorted = new long[count];
+    System.arraycopy(latencies, 0, sorted, 0, count);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100 * count) - 1;
+    return sorted[Math.max(0, Math.min(count - 1, index))];
+  }
+
+  private synchronized boolean tryHedge() {
+    if (hedges + 1 > maxRate * requests) {
+      return false;
+    }
+    hedges++;
+    return true;
+  }
+
+  private synchronized void record(long latency) {
+    latencies[samples % MAX_SAMPLES] = latency;
+    samples++;
+  }
+
+  public synchronized int getRequests() {
+    return requests;
+  }
+
+  public synchronized int getHedges() {
+    return hedges;
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.math.BigInteger;
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+
+/**
+ * Reads issues one by one, several at the same time, when the rules need more than the issue pages give.
+ * Each issue is read once even if requested twice. An issue that cannot be read is skipped, its rules are
+ * then not checked.
+ *
+ * @since 0.5
+ */
+public class IssueDetailLoader {
+
+  private static final Logger LOG = LoggerFactory.getLogger(IssueDetailLoader.class);
+
+  private final IssueSource source;
+  private final int threads;
+
+  /**
+   * @param source connected source, which must accept concurrent calls
+   */
+  public IssueDetailLoader(IssueSource source, int threads) {
+    this.source = source;
+    this.threads = threads;
+  }
+
+  /**
+   * @return the issues read, by id
+   */
+  public Map<BigInteger, IssueData> load(List<IssueData> issues) throws RemoteException {
+    Map<BigInteger, IssueData> details = new HashMap<BigInteger, IssueData>();
+    if (issues.isEmpty()) {
+      return details;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, issues.size()), new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "mantis-details");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      Map<BigInteger, Future<IssueData>> reads = new LinkedHashMap<BigInteger, Future<IssueData>>();
+      for (IssueData issue : issues) {
+        final BigInteger id = issue.getId();
+        if (!reads.containsKey(id)) {
+          reads.put(id, executor.submit(new Callable<IssueData>() {
+            public IssueData call() throws RemoteException {
+              return source.getIssue(id);
+            }
+          }));
+        }
+      }
+      for (Map.Entry<BigInteger, Future<IssueData>> read : reads.entrySet()) {
+        try {
+          IssueData issue = read.getValue().get();
+          if (issue != null) {
+            details.put(read.getKey(), issue);
+          }
+        } catch (ExecutionException e) {
+          LOG.warn("Unable to read Mantis issue #" + read.getKey(), e.getCause());
+        }
+      }
+      return details;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Interrupted while reading the Mantis issues", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+
+/**
+ * Accumulates the pages returned by Mantis, dropping issues that were already seen on a previous page.
+ *
+ * @since 0.5
+ */
+public class IssuePageCollector {
+
+  private final LongHashSet seen;
+  private final List<IssueData> issues;
+  private int duplicates;
+
+  public IssuePageCollector() {
+    this(256);
+  }
+
+  public IssuePageCollector(int expectedSize) {
+    seen = new LongHashSet(expectedSize);
+    issues = new ArrayList<IssueData>(expectedSize);
+  }
+
+  /**
+   * @return the number of issues of the page that were not seen before
+   */
+  public int addPage(IssueData[] page) {
+    int added = 0;
+    for (IssueData issue : page) {
+      if (seen.add(issue.getId().longValue())) {
+        issues.add(issue);
+        added++;
+      } else {
+        duplicates++;
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Adds the issues of a page that is read again on purpose, repeated issues are not counted as duplicates.
+   *
+   * @return the number of issues of the page that were not seen before
+   */
+  public int merge(IssueData[] page) {
+    int added = 0;
+    for (IssueData issue : page) {
+      if (seen.add(issue.getId().longValue())) {
+        issues.add(issue);
+        added++;
+      }
+    }
+    return added;
+  }
+
+  public boolean contains(IssueData issue) {
+    return seen.contains(issue.getId().longValue());
+  }
+
+  public int size() {
+    return issues.size();
+  }
+
+  public int getDuplicatesRemoved() {
+    return duplicates;
+  }
+
+  public IssueData[] toArray() {
+    return issues.toArray(new IssueData[issues.size()]);
+  }
+}
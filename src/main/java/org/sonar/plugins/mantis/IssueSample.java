@@ -0,0 +1,82 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+
+/**
+ * Random pages of the issues of a project, with the total number of issues they are drawn from.
+ *
+ * @since 0.5
+ */
+public class IssueSample {
+
+  private final int total;
+  private final int pageCount;
+  private final IssueData[] issues;
+  private final int[] pageEnds;
+
+  /**
+   * @param total number of issues of the project
+   * @param pageCount number of pages of the project
+   * @param issues issues of the pages read, page after page
+   * @param pageEnds for each page read, the index in issues after its last issue
+   */
+  public IssueSample(int total, int pageCount, IssueData[] issues, int[] pageEnds) {
+    this.total = total;
+    this.pageCount = pageCount;
+    this.issues = issues;
+    this.pageEnds = pageEnds;
+  }
+
+  public int getTotal() {
+    return total;
+  }
+
+  public int getPageCount() {
+    return pageCount;
+  }
+
+  public IssueData[] getIssues() {
+    return issues;
+  }
+
+  /**
+   * @return the number of pages read
+   */
+  public int getPagesRead() {
+    return pageEnds.length;
+  }
+
+  /**
+   * @return the index in {@link #getIssues()} after the last issue of the given page read
+   */
+  public int getPageEnd(int page) {
+    return pageEnds[page];
+  }
+
+  /**
+   * @return true if every page was read, the sample then being the whole project
+   */
+  public boolean isComplete() {
+    return pageEnds.length >= pageCount;
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.futureware.mantis.rpc.soap.client.FilterData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+
+/**
+ * Reads random pages of a project within a time budget, instead of every page. The number of issues is found
+ * first with pages of a single issue, in a number of requests logarithmic in the number of issues.
+ *
+ * @since 0.5
+ */
+public class IssueSampler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(IssueSampler.class);
+
+  /**
+   * Page number past the end of any project.
+   */
+  static final int FAR_PAGE = 1 << 30;
+
+  private final PagedIssueSource source;
+  private final long budgetMillis;
+  private final Random random;
+
+  /**
+   * @param source connected source
+   * @param budgetMillis time after which no more page is read; the first page is always read
+   */
+  public IssueSampler(PagedIssueSource source, long budgetMillis, Random random) {
+    this.source = source;
+    this.budgetMillis = budgetMillis;
+    this.random = random;
+  }
+
+  /**
+   * @param filter the filter to apply, null for every issue of the project
+   */
+  public IssueSample sample(FilterData filter) throws RemoteException {
+    long deadline = System.currentTimeMillis() + budgetMillis;
+    int total = count(filter);
+    int pageSize = source.getPageSize();
+    int pageCount = (total + pageSize - 1) / pageSize;
+    int[] order = new int[pageCount];
+    for (int i = 0; i < pageCount; i++) {
+      order[i] = i + 1;
+    }
+
+    List<IssueData> issues = new ArrayList<IssueData>();
+    LongHashSet seen = new LongHashSet();
+    int[] pageEnds = new int[pageCount];
+    int pagesRead = 0;
+    while (pagesRead < pageCount && (pagesRead == 0 || System.currentTimeMillis() < deadline)) {
+      // Fisher-Yates, one draw per page read
+      int pick = pagesRead + random.nextInt(pageCount - pagesRead);
+      int page = order[pick];
+      order[pick] = order[pagesRead];
+      order[pagesRead] = page;
+      for (IssueData issue : source.getIssuesPage(filter, page, pageSize)) {
+        if (seen.add(issue.getId().longValue())) {
+          issues.add(issue);
+        }
+      }
+      pageEnds[pagesRead++] = issues.size();
+    }
+    int[] ends = new int[pagesRead];
+    System.arraycopy(pageEnds, 0, ends, 0, pagesRead);
+    LOG.info("{} pages of {} read, {} issues sampled of {}", new Object[] {pagesRead, pageCount, issues.size(), total});
+    return new IssueSample(total, pageCount, issues.toArray(new IssueData[issues.size()]), ends);
+  }
+
+  /**
+   * Searches the first index past the end. Mantis answers the last issue again for such an index, the REST API
+   * answers nothing.
+   *
+   * @return the number of issues of the project
+   */
+  int count(FilterData filter) throws RemoteException {
+    IssueData[] first = source.getIssuesPage(filter, 1, 1);
+    if (first.length == 0) {
+      return 0;
+    }
+    IssueData[] last = source.getIssuesPage(filter, FAR_PAGE, 1);
+    Object lastId = last.length > 0 ? last[0].getId() : null;
+    if (lastId != null && lastId.equals(first[0].getId())) {
+      return 1;
+    }
+    int inside = 1;
+    int past = 2;
+    while (!isPastEnd(filter, past, lastId)) {
+      inside = past;
+      if (past >= FAR_PAGE / 2) {
+        throw new RemoteException("Unable to count the issues, more than " + past + " found");
+      }
+      past *= 2;
+    }
+    while (past - inside > 1) {
+      int middle = (inside + past) >>> 1;
+      if (isPastEnd(filter, middle, lastId)) {
+        past = middle;
+      } else {
+        inside = middle;
+      }
+    }
+    // the last issue itself is answered at the first index found, nothing past it
+    return lastId != null ? past : past - 1;
+  }
+
+  private boolean isPastEnd(FilterData filter, int index, Object lastId) throws RemoteException {
+    IssueData[] issue = source.getIssuesPage(filter, index, 1);
+    return issue.length == 0 || issue[0].getId().equals(lastId);
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.math.BigInteger;
+import java.rmi.RemoteException;
+
+import biz.futureware.mantis.rpc.soap.client.FilterData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+
+/**
+ * Backend reading the issues of a Mantis project. Every backend exposes the issues with the beans of the
+ * MantisConnect SOAP client, whatever the protocol it uses.
+ *
+ * @since 0.5
+ */
+public interface IssueSource {
+
+  void connect(String login, String password, String project) throws RemoteException;
+
+  BigInteger getProjectId();
+
+  FilterData[] getFilters() throws RemoteException;
+
+  /**
+   * @param filter the filter to apply, null for every issue of the project
+   */
+  IssueData[] getIssues(FilterData filter) throws RemoteException;
+
+  /**
+   * Reads one issue with its details, notes included.
+   *
+   * @return the issue, null if it does not exist
+   */
+  IssueData getIssue(BigInteger id) throws RemoteException;
+
+  void disconnect() throws RemoteException;
+}
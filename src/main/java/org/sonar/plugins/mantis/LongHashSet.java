@@ -0,0 +1,140 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.util.Arrays;
+
+/**
+ * Minimal open-addressing hash set of primitive <code>long</code> values, used to track Mantis issue
+ * ids while paging without boxing every id into a <code>BigInteger</code> or <code>Long</code>.
+ *
+ * @since 0.5
+ */
+public class LongHashSet {
+
+  private static final float LOAD_FACTOR = 0.5f;
+  private static final long EMPTY = 0L;
+
+  private long[] keys;
+  private int size;
+  private int threshold;
+  private boolean containsEmpty;
+
+  public LongHashSet() {
+    this(64);
+  }
+
+  public LongHashSet(int expectedSize) {
+    int capacity = 16;
+    while (capacity * LOAD_FACTOR < expectedSize) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  /**
+   * @return true if the value was not already present
+   */
+  public boolean add(long value) {
+    if (value == EMPTY) {
+      if (containsEmpty) {
+        return false;
+      }
+      containsEmpty = true;
+      size++;
+      return true;
+    }
+    int mask = keys.length - 1;
+    int index = mix(value) & mask;
+    while (keys[index] != EMPTY) {
+      if (keys[index] == value) {
+        return false;
+      }
+      index = (index + 1) & mask;
+    }
+    keys[index] = value;
+    size++;
+    if (size > threshold) {
+      rehash(keys.length << 1);
+    }
+    return true;
+  }
+
+  public boolean contains(long value) {
+    if (value == EMPTY) {
+      return containsEmpty;
+    }
+    int mask = keys.length - 1;
+    int index = mix(value) & mask;
+    while (keys[index] != EMPTY) {
+      if (keys[index] == value) {
+        return true;
+      }
+      index = (index + 1) & mask;
+    }
+    return false;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, EMPTY);
+    containsEmpty = false;
+    size = 0;
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    threshold = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private void rehash(int capacity) {
+    long[] old = keys;
+    allocate(capacity);
+    int mask = capacity - 1;
+    for (long key : old) {
+      if (key != EMPTY) {
+        int index = mix(key) & mask;
+        while (keys[index] != EMPTY) {
+          index = (index + 1) & mask;
+        }
+        keys[index] = key;
+      }
+    }
+  }
+
+  private static int mix(long value) {
+    // Murmur3 finalizer: issue ids are sequential, spread them over the table
+    long h = value;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+}
@@ -0,0 +1,437 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.net.URL;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.config.Settings;
+import org.sonar.api.profiles.RulesProfile;
+import org.sonar.api.resources.Project;
+import org.sonar.api.rules.ActiveRule;
+import org.sonar.api.rules.Rule;
+import org.sonar.api.rules.RuleParam;
+import org.sonar.api.rules.RulePriority;
+import org.sonar.check.Cardinality;
+
+import biz.futureware.mantis.rpc.soap.client.FilterData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+
+/**
+ * Runs the fetch and the analysis of the sensor outside Sonar, for every combination of a matrix of settings, and
+ * prints the time and the traffic of each phase. Reads a Mantis server when an url is given, a
+ * {@link SyntheticIssueSource} otherwise:
+ *
+ * <pre>
+ * java -cp ... org.sonar.plugins.mantis.MantisBenchmark url=http://mantis.example.com login=jer password=pwd project=myproject
+ *     backends=soap,rest pageSizes=50,200,500 threads=1,4 hedge=0,95 runs=3
+ * </pre>
+ *
+ * Every rule of the repository but the templates is active with its default parameters. History, prefetch and
+ * journal are disabled so that every run does the same work.
+ * <p>
+ * The bytes are counted by a {@link ByteCountingRelay}: a plain HTTP url is rewritten to go through the relay, an
+ * HTTPS one is reached through the relay set as the HTTPS proxy of the JVM for the time of the benchmark. In that
+ * case the bytes are those of the TLS records, handshakes included.
+ *
+ * @since 0.5
+ */
+public final class MantisBenchmark {
+
+  private static final String SYNTHETIC = "synthetic";
+
+  private static final String[] PROXY_PROPERTIES = {"https.proxyHost", "https.proxyPort", "http.nonProxyHosts", "https.nonProxyHosts"};
+
+  private static final Map<String, String> DEFAULTS = new LinkedHashMap<String, String>();
+
+  static {
+    DEFAULTS.put("url", "");
+    DEFAULTS.put("login", "");
+    DEFAULTS.put("password", "");
+    DEFAULTS.put("project", "");
+    DEFAULTS.put("filter", "");
+    DEFAULTS.put("backends", MantisPlugin.BACKEND_SOAP);
+    DEFAULTS.put("pageSizes", String.valueOf(PagedIssueSource.DEFAULT_PAGE_SIZE));
+    DEFAULTS.put("threads", String.valueOf(MantisConfiguration.DEFAULT_DETAIL_THREADS));
+    DEFAULTS.put("hedge", "0");
+    DEFAULTS.put("runs", "3");
+    DEFAULTS.put("warmup", "1");
+    DEFAULTS.put("issues", "10000");
+    DEFAULTS.put("latency", "0");
+  }
+
+  private final Map<String, String> options;
+
+  /**
+   * @param options values of the {@link #DEFAULTS} keys, the missing ones taking their default value
+   */
+  MantisBenchmark(Map<String, String> options) {
+    this.options = new LinkedHashMap<String, String>(DEFAULTS);
+    for (Map.Entry<String, String> option : options.entrySet()) {
+      if (!DEFAULTS.containsKey(option.getKey())) {
+        throw new IllegalArgumentException("Unknown option '" + option.getKey() + "'");
+      }
+      this.options.put(option.getKey(), option.getValue());
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    Map<String, String> options = new LinkedHashMap<String, String>();
+    try {
+      for (String arg : args) {
+        int equals = arg.indexOf('=');
+        if (equals <= 0) {
+          throw new IllegalArgumentException("Expected key=value, got '" + arg + "'");
+        }
+        options.put(arg.substring(0, equals), arg.substring(equals + 1));
+      }
+      new MantisBenchmark(options).run(System.out);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println("Options, with their default value: " + DEFAULTS);
+      System.exit(2);
+    }
+  }
+
+  /**
+   * Runs every combination of settings and prints one line per combination, averaged over the runs that follow
+   * the warmup runs.
+   */
+  List<Result> run(PrintStream out) throws IOException {
+    String url = options.get("url");
+    boolean synthetic = StringUtils.isEmpty(url);
+    ByteCountingRelay relay = null;
+    Map<String, String> proxyProperties = null;
+    if (!synthetic && url.startsWith("http:")) {
+      URL target = new URL(url);
+      relay = new ByteCountingRelay(target.getHost(), target.getPort() > 0 ? target.getPort() : target.getDefaultPort());
+      url = "http://127.0.0.1:" + relay.getLocalPort() + target.getFile();
+    } else if (!synthetic && url.startsWith("https:")) {
+      relay = new ByteCountingRelay();
+      proxyProperties = useProxy(relay.getLocalPort());
+    }
+    String[] backends = synthetic ? new String[] {SYNTHETIC} : split("backends");
+    int runs = intOption("runs");
+    int warmup = intOption("warmup");
+
+    out.println(String.format("%-9s %6s %7s %5s %8s %6s %8s %11s %10s %10s %10s %10s %9s", "backend", "page", "threads",
+        "hedge", "issues", "viol.", "trips", "bytes", "connect ms", "fetch ms", "analyse ms", "total ms", "issues/s"));
+    List<Result> results = new ArrayList<Result>();
+    try {
+      for (String backend : backends) {
+        for (String pageSize : split("pageSizes")) {
+          for (String threads : split("threads")) {
+            for (String hedge : split("hedge")) {
+              Settings settings = createSettings(url, backend, pageSize, threads, hedge);
+              Result result = new Result(backend, Integer.parseInt(pageSize), Integer.parseInt(threads), Double.parseDouble(hedge));
+              try {
+                for (int i = 0; i < warmup + runs; i++) {
+                  result.add(runOnce(settings, synthetic), relay, i >= warmup);
+                }
+                out.println(result);
+                results.add(result);
+              } catch (RemoteException e) {
+                out.println(result.toString(e));
+              }
+            }
+          }
+        }
+      }
+    } finally {
+      if (proxyProperties != null) {
+        restore(proxyProperties);
+      }
+      if (relay != null) {
+        relay.close();
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Sends the HTTPS connections of both the JDK and Axis through the local proxy, whatever the host.
+   *
+   * @return the previous values of the changed system properties
+   */
+  private static Map<String, String> useProxy(int port) {
+    Map<String, String> previous = new LinkedHashMap<String, String>();
+    for (String property : PROXY_PROPERTIES) {
+      previous.put(property, System.getProperty(property));
+    }
+    System.setProperty("https.proxyHost", "127.0.0.1");
+    System.setProperty("https.proxyPort", String.valueOf(port));
+    System.setProperty("http.nonProxyHosts", "");
+    System.setProperty("https.nonProxyHosts", "");
+    return previous;
+  }
+
+  private static void restore(Map<String, String> properties) {
+    for (Map.Entry<String, String> property : properties.entrySet()) {
+      if (property.getValue() == null) {
+        System.clearProperty(property.getKey());
+      } else {
+        System.setProperty(property.getKey(), property.getValue());
+      }
+    }
+  }
+
+  private Settings createSettings(String url, String backend, String pageSize, String threads, String hedge) {
+    Settings settings = new Settings()
+        .setProperty(MantisPlugin.SERVER_URL_PROPERTY, url)
+        .setProperty(MantisPlugin.USERNAME_PROPERTY, options.get("login"))
+        .setProperty(MantisPlugin.PASSWORD_PROPERTY, options.get("password"))
+        .setProperty(MantisPlugin.PROJECTNAME_PROPERTY, options.get("project"))
+        .setProperty(MantisPlugin.BACKEND_PROPERTY, SYNTHETIC.equals(backend) ? MantisPlugin.BACKEND_SOAP : backend)
+        .setProperty(MantisPlugin.PAGE_SIZE_PROPERTY, pageSize)
+        .setProperty(MantisPlugin.DETAILS_THREADS_PROPERTY, threads)
+        .setProperty(MantisPlugin.HEDGE_PERCENTILE_PROPERTY, hedge)
+        .setProperty(MantisPlugin.HISTORY_PROPERTY, "false")
+        .setProperty(MantisPlugin.PREFETCH_PROPERTY, "false")
+        .setProperty(MantisPlugin.JOURNAL_WINDOW_PROPERTY, "0");
+    if (StringUtils.isNotEmpty(options.get("filter"))) {
+      settings.setProperty(MantisPlugin.FILTER_PROPERTY, options.get("filter"));
+    }
+    return settings;
+  }
+
+  private Run runOnce(Settings settings, boolean synthetic) throws RemoteException {
+    MantisConfiguration configuration = MantisConfiguration.create(settings);
+    RulesProfile profile = createProfile();
+    BenchmarkSensor sensor = new BenchmarkSensor(settings, profile, synthetic);
+    MantisRules rules = new MantisRules(profile);
+    Project project = new Project("benchmark");
+    Date date = MantisSensor.analysisDate(project);
+    Run run = new Run();
+    long start = System.nanoTime();
+    IssueSource source = sensor.openIssueSource(configuration);
+    IssueData[] issues;
+    Map<BigInteger, IssueData> details;
+    try {
+      source.connect(configuration.getUsername(), configuration.getPassword(), configuration.getProjectName());
+      FilterData filter = sensor.findFilter(configuration, source);
+      run.connectNanos = System.nanoTime() - start;
+      start = System.nanoTime();
+      issues = source.getIssues(filter);
+      details = sensor.loadDetails(configuration, rules, source, issues, date);
+      run.fetchNanos = System.nanoTime() - start;
+    } finally {
+      source.disconnect();
+    }
+    ViolationCounter violations = new ViolationCounter();
+    start = System.nanoTime();
+    sensor.analyze(project, violations.context(), configuration, rules,
+        new FetchedIssues(source.getProjectId(), issues, details));
+    run.analyseNanos = System.nanoTime() - start;
+    run.issues = issues.length;
+    run.violations = violations.count.get();
+    run.roundTrips = sensor.requests.get();
+    return run;
+  }
+
+  private static RulesProfile createProfile() {
+    RulesProfile profile = RulesProfile.create("benchmark", "java");
+    for (Rule rule : new MantisRuleRepository().createRules()) {
+      if (rule.getCardinality() == Cardinality.MULTIPLE) {
+        continue;
+      }
+      ActiveRule active = profile.activateRule(rule, RulePriority.MAJOR);
+      for (RuleParam param : rule.getParams()) {
+        active.setParameter(param.getKey(), param.getDefaultValue());
+      }
+    }
+    return profile;
+  }
+
+  private String[] split(String key) {
+    return StringUtils.split(options.get(key), ',');
+  }
+
+  private int intOption(String key) {
+    try {
+      return Integer.parseInt(options.get(key));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Option '" + key + "' must be an integer, got '" + options.get(key) + "'");
+    }
+  }
+
+  /**
+   * Sensor counting the requests of its backends, and reading a synthetic backlog when no url is given.
+   */
+  private final class BenchmarkSensor extends MantisSensor {
+
+    private final boolean synthetic;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    BenchmarkSensor(Settings settings, RulesProfile profile, boolean synthetic) {
+      super(settings, profile);
+      this.synthetic = synthetic;
+    }
+
+    @Override
+    protected IssueSource createIssueSource(MantisConfiguration configuration) throws RemoteException {
+      if (synthetic) {
+        return new SyntheticIssueSource(intOption("issues"), intOption("latency"), createRateLimiter(configuration));
+      }
+      return super.createIssueSource(configuration);
+    }
+
+    @Override
+    protected RateLimiter createRateLimiter(MantisConfiguration configuration) {
+      final RateLimiter limiter = super.createRateLimiter(configuration);
+      return new RateLimiter() {
+        @Override
+        public int acquire() throws InterruptedException {
+          requests.incrementAndGet();
+          return limiter != null ? limiter.acquire() : -1;
+        }
+
+        @Override
+        public void release(int permit) {
+          if (limiter != null) {
+            limiter.release(permit);
+          }
+        }
+      };
+    }
+  }
+
+  /**
+   * Context counting the violations and dropping the measures.
+   */
+  private static final class ViolationCounter implements InvocationHandler {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    SensorContext context() {
+      return (SensorContext) Proxy.newProxyInstance(SensorContext.class.getClassLoader(), new Class<?>[] {SensorContext.class}, this);
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      if ("saveViolation".equals(method.getName())) {
+        count.incrementAndGet();
+      }
+      return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+    }
+  }
+
+  private static final class Run {
+    private int issues;
+    private int violations;
+    private int roundTrips;
+    private long connectNanos;
+    private long fetchNanos;
+    private long analyseNanos;
+  }
+
+  /**
+   * Averages of the measured runs of one combination of settings.
+   */
+  static final class Result {
+
+    private final String backend;
+    private final int pageSize;
+    private final int threads;
+    private final double hedge;
+    private int runs;
+    private int issues;
+    private int violations;
+    private long roundTrips;
+    private long bytes = -1;
+    private long connectNanos;
+    private long fetchNanos;
+    private long analyseNanos;
+
+    Result(String backend, int pageSize, int threads, double hedge) {
+      this.backend = backend;
+      this.pageSize = pageSize;
+      this.threads = threads;
+      this.hedge = hedge;
+    }
+
+    void add(Run run, ByteCountingRelay relay, boolean measured) {
+      long runBytes = relay != null ? relay.takeBytes() : -1;
+      if (!measured) {
+        return;
+      }
+      runs++;
+      issues = run.issues;
+      violations = run.violations;
+      roundTrips += run.roundTrips;
+      bytes = runBytes < 0 ? -1 : Math.max(bytes, 0) + runBytes;
+      connectNanos += run.connectNanos;
+      fetchNanos += run.fetchNanos;
+      analyseNanos += run.analyseNanos;
+    }
+
+    int getIssues() {
+      return issues;
+    }
+
+    int getViolations() {
+      return violations;
+    }
+
+    long getRoundTrips() {
+      return runs > 0 ? roundTrips / runs : 0;
+    }
+
+    /**
+     * @return the bytes exchanged per run, -1 if unknown
+     */
+    long getBytes() {
+      return runs > 0 && bytes >= 0 ? bytes / runs : -1;
+    }
+
+    double getIssuesPerSecond() {
+      long total = connectNanos + fetchNanos + analyseNanos;
+      return total > 0 ? issues * runs * 1e9 / total : 0;
+    }
+
+    private String millis(long nanos) {
+      return String.format("%.1f", runs > 0 ? nanos / 1e6 / runs : 0);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%-9s %6d %7d %5s %8d %6d %8d %11s %10s %10s %10s %10s %9.0f", backend, pageSize, threads, hedge > 0 ? hedge : "-",
+          issues, violations, getRoundTrips(), getBytes() >= 0 ? String.valueOf(getBytes()) : "-", millis(connectNanos), millis(fetchNanos),
+          millis(analyseNanos), millis(connectNanos + fetchNanos + analyseNanos), getIssuesPerSecond());
+    }
+
+    String toString(Exception failure) {
+      return String.format("%-9s %6d %7d %5s failed: %s", backend, pageSize, threads, hedge > 0 ? hedge : "-", failure.getMessage());
+    }
+  }
+}
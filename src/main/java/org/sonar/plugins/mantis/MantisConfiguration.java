@@ -0,0 +1,273 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.sonar.api.config.Settings;
+import org.sonar.api.utils.SonarException;
+import org.sonar.plugins.mantis.predicate.IssuePredicate;
+import org.sonar.plugins.mantis.predicate.PredicateParser;
+import org.sonar.plugins.mantis.rest.MantisRestService;
+
+/**
+ * Immutable settings of the analysis of one project, read once from the {@link Settings} of the project.
+ *
+ * @since 0.5
+ */
+public final class MantisConfiguration {
+
+  static final double DEFAULT_HEDGE_RATE = 0.05;
+
+  static final int DEFAULT_DETAIL_THREADS = 4;
+
+  private final String serverUrl;
+  private final String username;
+  private final String password;
+  private final String projectName;
+  private final String filterName;
+  private final String backend;
+  private final int connectTimeout;
+  private final int readTimeout;
+  private final double requestsPerSecond;
+  private final int concurrency;
+  private final boolean sharedRate;
+  private final int maxDevelopers;
+  private final boolean history;
+  private final String historyDirectory;
+  private final boolean prefetch;
+  private final double hedgePercentile;
+  private final double hedgeRate;
+  private final int detailThreads;
+  private final int journalWindow;
+  private final int pageSize;
+  private final int samplingBudget;
+  private final Map<String, IssuePredicate> views;
+
+  private MantisConfiguration(Settings settings) {
+    serverUrl = settings.getString(MantisPlugin.SERVER_URL_PROPERTY);
+    username = settings.getString(MantisPlugin.USERNAME_PROPERTY);
+    password = settings.getString(MantisPlugin.PASSWORD_PROPERTY);
+    projectName = settings.getString(MantisPlugin.PROJECTNAME_PROPERTY);
+    filterName = settings.getString(MantisPlugin.FILTER_PROPERTY);
+    backend = StringUtils.defaultIfEmpty(settings.getString(MantisPlugin.BACKEND_PROPERTY), MantisPlugin.BACKEND_SOAP);
+    connectTimeout = NumberUtils.toInt(settings.getString(MantisPlugin.TIMEOUT_CONNECT_PROPERTY),
+        MantisRestService.DEFAULT_CONNECT_TIMEOUT / 1000);
+    readTimeout = NumberUtils.toInt(settings.getString(MantisPlugin.TIMEOUT_READ_PROPERTY), MantisRestService.DEFAULT_READ_TIMEOUT / 1000);
+    requestsPerSecond = NumberUtils.toDouble(settings.getString(MantisPlugin.RATE_REQUESTS_PROPERTY));
+    concurrency = settings.getInt(MantisPlugin.RATE_CONCURRENCY_PROPERTY);
+    sharedRate = settings.getBoolean(MantisPlugin.RATE_SHARED_PROPERTY);
+    maxDevelopers = settings.getInt(MantisPlugin.DEVELOPERS_MAX_PROPERTY);
+    history = !"false".equals(settings.getString(MantisPlugin.HISTORY_PROPERTY));
+    historyDirectory = settings.getString(MantisPlugin.HISTORY_DIR_PROPERTY);
+    prefetch = !"false".equals(settings.getString(MantisPlugin.PREFETCH_PROPERTY));
+    hedgePercentile = NumberUtils.toDouble(settings.getString(MantisPlugin.HEDGE_PERCENTILE_PROPERTY));
+    hedgeRate = NumberUtils.toDouble(settings.getString(MantisPlugin.HEDGE_RATE_PROPERTY), DEFAULT_HEDGE_RATE);
+    journalWindow = settings.getInt(MantisPlugin.JOURNAL_WINDOW_PROPERTY);
+    pageSize = NumberUtils.toInt(settings.getString(MantisPlugin.PAGE_SIZE_PROPERTY), PagedIssueSource.DEFAULT_PAGE_SIZE);
+    samplingBudget = settings.getInt(MantisPlugin.SAMPLING_BUDGET_PROPERTY);
+    detailThreads = NumberUtils.toInt(settings.getString(MantisPlugin.DETAILS_THREADS_PROPERTY), DEFAULT_DETAIL_THREADS);
+    views = compileViews(settings);
+  }
+
+  private static Map<String, IssuePredicate> compileViews(Settings settings) {
+    Map<String, IssuePredicate> compiled = new LinkedHashMap<String, IssuePredicate>();
+    for (String view : settings.getStringArray(MantisPlugin.VIEWS_PROPERTY)) {
+      String expression = settings.getString(MantisPlugin.VIEW_PROPERTY_PREFIX + view);
+      if (StringUtils.isBlank(expression)) {
+        throw new SonarException("The Mantis view '" + view + "' has no expression, please set " + MantisPlugin.VIEW_PROPERTY_PREFIX + view);
+      }
+      try {
+        compiled.put(view, PredicateParser.parse(expression));
+      } catch (IllegalArgumentException e) {
+        throw new SonarException("Error in the Mantis view '" + view + "': " + e.getMessage(), e);
+      }
+    }
+    return Collections.unmodifiableMap(compiled);
+  }
+
+  public static MantisConfiguration create(Settings settings) {
+    return new MantisConfiguration(settings);
+  }
+
+  /**
+   * @return true if the server url, the project name, the username and the password are set
+   */
+  public boolean isComplete() {
+    return StringUtils.isNotEmpty(serverUrl) && StringUtils.isNotEmpty(projectName)
+      && StringUtils.isNotEmpty(username) && StringUtils.isNotEmpty(password);
+  }
+
+  public String getServerUrl() {
+    return serverUrl;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public String getPassword() {
+    return password;
+  }
+
+  public String getProjectName() {
+    return projectName;
+  }
+
+  public String getFilterName() {
+    return filterName;
+  }
+
+  public String getBackend() {
+    return backend;
+  }
+
+  /**
+   * @return the milliseconds to wait for the connection to the server, zero to wait forever
+   */
+  public int getConnectTimeout() {
+    return Math.max(0, connectTimeout) * 1000;
+  }
+
+  /**
+   * @return the milliseconds to wait for each read of an answer, zero to wait forever
+   */
+  public int getReadTimeout() {
+    return Math.max(0, readTimeout) * 1000;
+  }
+
+  /**
+   * @return the maximum number of requests per second, zero or less for no limit
+   */
+  public double getRequestsPerSecond() {
+    return requestsPerSecond;
+  }
+
+  /**
+   * @return the maximum number of requests in flight, zero or less for no limit
+   */
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  public boolean isSharedRate() {
+    return sharedRate;
+  }
+
+  /**
+   * @return the number of developers kept in the distribution by developer, zero or less to keep them all
+   */
+  public int getMaxDevelopers() {
+    return maxDevelopers;
+  }
+
+  public boolean isHistoryEnabled() {
+    return history;
+  }
+
+  public File getHistoryDirectory() {
+    return StringUtils.isNotEmpty(historyDirectory)
+        ? new File(historyDirectory)
+        : new File(System.getProperty("user.home"), ".sonar/mantis");
+  }
+
+  public boolean isPrefetchEnabled() {
+    return prefetch;
+  }
+
+  /**
+   * @return the latency percentile after which a page request is sent again, zero or less to never hedge
+   */
+  public double getHedgePercentile() {
+    return hedgePercentile;
+  }
+
+  /**
+   * @return the maximum fraction of the page requests that are hedged
+   */
+  public double getHedgeRate() {
+    return hedgeRate;
+  }
+
+  /**
+   * @return the number of issues read at the same time when the rules need their details
+   */
+  public int getDetailThreads() {
+    return Math.max(1, detailThreads);
+  }
+
+  /**
+   * @return the number of issues requested per page
+   */
+  public int getPageSize() {
+    return pageSize > 0 ? pageSize : PagedIssueSource.DEFAULT_PAGE_SIZE;
+  }
+
+  /**
+   * @return the time spent reading random pages when the measures are estimated, in seconds, zero or less to read
+   *         every issue
+   */
+  public int getSamplingBudget() {
+    return samplingBudget;
+  }
+
+  /**
+   * @return the time during which a failed fetch can be resumed from its journal, in minutes, zero or less to keep
+   *         no journal
+   */
+  public int getJournalWindow() {
+    return journalWindow;
+  }
+
+  /**
+   * @return the journal of the fetch of the configured project and filter
+   */
+  public File getJournalFile() {
+    String key = getJournalKey();
+    return new File(getHistoryDirectory(), "fetch-" + Integer.toHexString(key.hashCode()) + ".journal");
+  }
+
+  /**
+   * @return identifies the fetches returning the same issues, whatever their paging
+   */
+  public String getFetchKey() {
+    return backend + "|" + serverUrl + "|" + projectName + "|" + StringUtils.defaultString(filterName) + "|" + samplingBudget;
+  }
+
+  /**
+   * @return identifies the fetches of the same issues
+   */
+  public String getJournalKey() {
+    return backend + "|" + serverUrl + "|" + projectName + "|" + StringUtils.defaultString(filterName) + "|" + getPageSize();
+  }
+
+  /**
+   * @return the compiled views by name, in configuration order
+   */
+  public Map<String, IssuePredicate> getViews() {
+    return views;
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Java Flight Recorder events of the Mantis fetch and analysis. The plugin is compiled for JVMs without JFR, so
+ * the event types are defined at runtime through {@code jdk.jfr.EventFactory}. When JFR is missing or the event
+ * type is not recorded, {@link Type#begin()} returns null and nothing else is done:
+ *
+ * <pre>
+ * Object event = MantisEvents.SOAP_CALL.begin();
+ * boolean failed = true;
+ * try {
+ *   ...
+ *   failed = false;
+ * } finally {
+ *   if (event != null) {
+ *     MantisEvents.SOAP_CALL.commit(event, "mc_filter_get_issues", page, count, size, failed);
+ *   }
+ * }
+ * </pre>
+ *
+ * Calls are recorded in a finally block, so that the failed and timed-out ones, the slowest, are recorded too.
+ *
+ * @since 0.5
+ */
+public final class MantisEvents {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MantisEvents.class);
+
+  private static final String PREFIX = "org.sonar.plugins.mantis.";
+
+  public static final Type SOAP_CALL = new Type("SoapCall", "Mantis SOAP Call",
+      new String[] {"method", "page", "count", "size", "failed"},
+      new Class<?>[] {String.class, int.class, int.class, int.class, boolean.class});
+
+  public static final Type PAGE_RECOVERY = new Type("PageRecovery", "Mantis Page Recovery",
+      new String[] {"page", "answered", "recovered"},
+      new Class<?>[] {int.class, int.class, int.class});
+
+  public static final Type RULE_EVALUATION = new Type("RuleEvaluation", "Mantis Rule Evaluation",
+      new String[] {"project", "issues", "violations"},
+      new Class<?>[] {String.class, int.class, int.class});
+
+  public static final Type MEASURE_SAVE = new Type("MeasureSave", "Mantis Measure Save",
+      new String[] {"metric"},
+      new Class<?>[] {String.class});
+
+  private MantisEvents() {
+  }
+
+  /**
+   * One custom event type. All the reflective members are null when JFR is not available.
+   */
+  public static final class Type {
+
+    private final Object factory;
+    private final Object eventType;
+    private final Method newEvent;
+    private final Method isEnabled;
+    private final Method begin;
+    private final Method set;
+    private final Method shouldCommit;
+    private final Method commit;
+
+    Type(String name, String label, String[] fieldNames, Class<?>[] fieldTypes) {
+      Object createdFactory = null;
+      Object createdType = null;
+      Method[] methods = new Method[6];
+      try {
+        Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+        Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+        Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+        Class<?> eventClass = Class.forName("jdk.jfr.Event");
+        Constructor<?> annotation = annotationClass.getConstructor(Class.class, Object.class);
+        Constructor<?> descriptor = descriptorClass.getConstructor(Class.class, String.class);
+
+        List<Object> annotations = new ArrayList<Object>();
+        annotations.add(annotation.newInstance(annotationType("jdk.jfr.Name"), PREFIX + name));
+        annotations.add(annotation.newInstance(annotationType("jdk.jfr.Label"), label));
+        annotations.add(annotation.newInstance(annotationType("jdk.jfr.Category"), new String[] {"Sonar", "Mantis"}));
+        List<Object> fields = new ArrayList<Object>();
+        for (int i = 0; i < fieldNames.length; i++) {
+          fields.add(descriptor.newInstance(fieldTypes[i], fieldNames[i]));
+        }
+
+        createdFactory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+        createdType = factoryClass.getMethod("getEventType").invoke(createdFactory);
+        methods[0] = factoryClass.getMethod("newEvent");
+        methods[1] = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+        methods[2] = eventClass.getMethod("begin");
+        methods[3] = eventClass.getMethod("set", int.class, Object.class);
+        methods[4] = eventClass.getMethod("shouldCommit");
+        methods[5] = eventClass.getMethod("commit");
+      } catch (ClassNotFoundException e) {
+        LOG.debug("Java Flight Recorder is not available, no Mantis events are recorded");
+        createdFactory = null;
+      } catch (Exception e) {
+        LOG.debug("Unable to define the Java Flight Recorder event " + name, e);
+        createdFactory = null;
+      }
+      this.factory = createdFactory;
+      this.eventType = createdFactory != null ? createdType : null;
+      this.newEvent = methods[0];
+      this.isEnabled = methods[1];
+      this.begin = methods[2];
+      this.set = methods[3];
+      this.shouldCommit = methods[4];
+      this.commit = methods[5];
+    }
+
+    /**
+     * Starts timing an event.
+     *
+     * @return the event to commit, null when the event type is not recorded
+     */
+    public Object begin() {
+      if (factory == null) {
+        return null;
+      }
+      try {
+        if (!Boolean.TRUE.equals(isEnabled.invoke(eventType))) {
+          return null;
+        }
+        Object event = newEvent.invoke(factory);
+        begin.invoke(event);
+        return event;
+      } catch (Exception e) {
+        return null;
+      }
+    }
+
+    /**
+     * Ends the event started by {@link #begin()} and records it with its field values, in declaration order.
+     */
+    public void commit(Object event, Object... values) {
+      if (event == null) {
+        return;
+      }
+      try {
+        if (Boolean.TRUE.equals(shouldCommit.invoke(event))) {
+          for (int i = 0; i < values.length; i++) {
+            set.invoke(event, i, values[i]);
+          }
+          commit.invoke(event);
+        }
+      } catch (Exception e) {
+        LOG.debug("Unable to commit the Java Flight Recorder event", e);
+      }
+    }
+
+    public boolean isAvailable() {
+      return factory != null;
+    }
+  }
+
+  private static Class<? extends Annotation> annotationType(String name) throws ClassNotFoundException {
+    return Class.forName(name).asSubclass(Annotation.class);
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Local time series of the daily issue aggregates of a project, kept between analyses.
+ * <p>
+ * The series is a file of fixed-size records sorted by day, one record per day: new days are appended and a
+ * second analysis on the same day rewrites the last record. Each record carries cumulated counters, so the
+ * number of issues opened or closed over a period is the difference of two records found by binary search,
+ * whatever the length of the history. The ids of the issues open at the last analysis are kept aside to
+ * compute the delta of the next one.
+ *
+ * @since 0.5
+ */
+public class MantisHistory {
+
+  /**
+   * Lower bounds, in days, of the age buckets of open issues.
+   */
+  public static final int[] AGE_LIMITS = {0, 7, 30, 90, 365};
+
+  static final int RECORD_SIZE = 4 + 4 + 4 + 8 + 8 + 4 * AGE_LIMITS.length;
+
+  private static final long DAY = 24 * 3600 * 1000L;
+
+  private final File seriesFile;
+  private final File openIdsFile;
+
+  public MantisHistory(File directory) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create directory " + directory);
+    }
+    this.seriesFile = new File(directory, "daily.dat");
+    this.openIdsFile = new File(directory, "open-ids.dat");
+  }
+
+  public static int day(long time) {
+    return (int) (time / DAY);
+  }
+
+  /**
+   * @return the ids of the issues open at the previous analysis, null on the first analysis
+   */
+  public long[] readOpenIds() throws IOException {
+    if (!openIdsFile.isFile()) {
+      return null;
+    }
+    DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(openIdsFile)));
+    try {
+      long[] ids = new long[input.readInt()];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = input.readLong();
+      }
+      return ids;
+    } catch (EOFException e) {
+      return null;
+    } finally {
+      input.close();
+    }
+  }
+
+  public void writeOpenIds(long[] ids, int count) throws IOException {
+    File tmp = new File(openIdsFile.getPath() + ".tmp");
+    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      output.writeInt(count);
+      for (int i = 0; i < count; i++) {
+        output.writeLong(ids[i]);
+      }
+    } finally {
+      output.close();
+    }
+    if ((openIdsFile.exists() && !openIdsFile.delete()) || !tmp.renameTo(openIdsFile)) {
+      throw new IOException("Unable to write " + openIdsFile);
+    }
+  }
+
+  /**
+   * Adds the aggregates of an analysis. A second analysis of the same day adds up with the first one.
+   *
+   * @return the stored record, with its cumulated counters
+   */
+  public Record append(int day, int opened, int closed, int[] ageBuckets) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(seriesFile, "rw");
+    try {
+      long count = file.length() / RECORD_SIZE;
+      Record last = count > 0 ? read(file, count - 1) : null;
+      Record record = new Record();
+      record.day = day;
+      record.ageBuckets = ageBuckets;
+      long position = count * RECORD_SIZE;
+      if (last != null && last.day >= day) {
+        // same day: merge with the last record, going back in time is not supported
+        record.day = last.day;
+        record.opened = last.opened + opened;
+        record.closed = last.closed + closed;
+        record.cumulatedOpened = last.cumulatedOpened + opened;
+        record.cumulatedClosed = last.cumulatedClosed + closed;
+        position -= RECORD_SIZE;
+      } else {
+        record.opened = opened;
+        record.closed = closed;
+        record.cumulatedOpened = (last != null ? last.cumulatedOpened : 0) + opened;
+        record.cumulatedClosed = (last != null ? last.cumulatedClosed : 0) + closed;
+      }
+      file.seek(position);
+      write(file, record);
+      file.setLength(position + RECORD_SIZE);
+      return record;
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * @return the last record of a day before or equal to the given day, null if the history starts later
+   */
+  public Record find(int day) throws IOException {
+    if (!seriesFile.isFile()) {
+      return null;
+    }
+    RandomAccessFile file = new RandomAccessFile(seriesFile, "r");
+    try {
+      long low = 0;
+      long high = file.length() / RECORD_SIZE - 1;
+      Record found = null;
+      while (low <= high) {
+        long middle = (low + high) >>> 1;
+        Record record = read(file, middle);
+        if (record.day <= day) {
+          found = record;
+          low = middle + 1;
+        } else {
+          high = middle - 1;
+        }
+      }
+      return found;
+    } finally {
+      file.close();
+    }
+  }
+
+  private static Record read(RandomAccessFile file, long index) throws IOException {
+    file.seek(index * RECORD_SIZE);
+    Record record = new Record();
+    record.day = file.readInt();
+    record.opened = file.readInt();
+    record.closed = file.readInt();
+    record.cumulatedOpened = file.readLong();
+    record.cumulatedClosed = file.readLong();
+    record.ageBuckets = new int[AGE_LIMITS.length];
+    for (int i = 0; i < AGE_LIMITS.length; i++) {
+      record.ageBuckets[i] = file.readInt();
+    }
+    return record;
+  }
+
+  private static void write(RandomAccessFile file, Record record) throws IOException {
+    file.writeInt(record.day);
+    file.writeInt(record.opened);
+    file.writeInt(record.closed);
+    file.writeLong(record.cumulatedOpened);
+    file.writeLong(record.cumulatedClosed);
+    for (int i = 0; i < AGE_LIMITS.length; i++) {
+      file.writeInt(record.ageBuckets[i]);
+    }
+  }
+
+  /**
+   * Aggregates of one day.
+   */
+  public static class Record {
+    int day;
+    int opened;
+    int closed;
+    long cumulatedOpened;
+    long cumulatedClosed;
+    int[] ageBuckets;
+
+    public int getDay() {
+      return day;
+    }
+
+    public int getOpened() {
+      return opened;
+    }
+
+    public int getClosed() {
+      return closed;
+    }
+
+    public long getCumulatedOpened() {
+      return cumulatedOpened;
+    }
+
+    public long getCumulatedClosed() {
+      return cumulatedClosed;
+    }
+
+    /**
+     * @return the number of open issues in each bucket of {@link MantisHistory#AGE_LIMITS}
+     */
+    public int[] getAgeBuckets() {
+      return ageBuckets;
+    }
+  }
+}
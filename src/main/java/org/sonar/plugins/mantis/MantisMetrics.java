@@ -62,8 +62,58 @@ public class MantisMetrics implements Metrics {
       .setDirection(Metric.DIRECTION_WORST).setQualitative(true)
       .setDomain(DOMAIN).create();
 
+  public static final Metric OPENED_ISSUES = new Metric.Builder(
+      "mantis_issues_opened", "Mantis Issues Opened",
+      Metric.ValueType.INT)
+      .setDescription("Number of Mantis Issues opened during the last 30 days")
+      .setDirection(Metric.DIRECTION_WORST).setQualitative(false)
+      .setDomain(DOMAIN).create();
+
+  public static final Metric CLOSED_ISSUES = new Metric.Builder(
+      "mantis_issues_closed", "Mantis Issues Closed",
+      Metric.ValueType.INT)
+      .setDescription("Number of Mantis Issues closed during the last 30 days")
+      .setDirection(Metric.DIRECTION_BETTER).setQualitative(false)
+      .setDomain(DOMAIN).create();
+
+  public static final Metric OPEN_ISSUES_AGE = new Metric.Builder(
+      "mantis_open_issues_age", "Mantis Open Issues Age",
+      Metric.ValueType.DISTRIB)
+      .setDescription("Number of open Mantis Issues by age, in days")
+      .setDirection(Metric.DIRECTION_WORST).setQualitative(true)
+      .setDomain(DOMAIN).create();
+
+  public static final Metric VIEWS = new Metric.Builder(
+      "mantis_views", "Mantis Issues by view",
+      Metric.ValueType.DISTRIB)
+      .setDescription("Number of Mantis Issues in each configured view")
+      .setDirection(Metric.DIRECTION_WORST).setQualitative(true)
+      .setDomain(DOMAIN).create();
+
+  public static final Metric ESTIMATED = new Metric.Builder(
+      "mantis_estimated", "Mantis Measures Estimated",
+      Metric.ValueType.BOOL)
+      .setDescription("True when the Mantis measures are extrapolated from a random sample of the issues")
+      .setDirection(Metric.DIRECTION_NONE).setQualitative(false)
+      .setDomain(DOMAIN).create();
+
+  public static final Metric ESTIMATED_VIOLATIONS = new Metric.Builder(
+      "mantis_estimated_violations", "Mantis Estimated Violations",
+      Metric.ValueType.DISTRIB)
+      .setDescription("Estimated number of Mantis Issues violating each rule, when the issues are sampled")
+      .setDirection(Metric.DIRECTION_WORST).setQualitative(true)
+      .setDomain(DOMAIN).create();
+
+  public static final Metric ESTIMATE_BOUNDS = new Metric.Builder(
+      "mantis_estimate_bounds", "Mantis Estimate Bounds",
+      Metric.ValueType.DATA)
+      .setDescription("95% confidence bounds of the estimated Mantis measures")
+      .setDirection(Metric.DIRECTION_NONE).setQualitative(false)
+      .setDomain(DOMAIN).create();
+
   public List<Metric> getMetrics() {
-    return Arrays.asList(ISSUES, PRIORITIES, STATUS, DEVELOPERS);
+    return Arrays.asList(ISSUES, PRIORITIES, STATUS, DEVELOPERS, OPENED_ISSUES, CLOSED_ISSUES, OPEN_ISSUES_AGE, VIEWS,
+        ESTIMATED, ESTIMATED_VIOLATIONS, ESTIMATE_BOUNDS);
   }
 
 }
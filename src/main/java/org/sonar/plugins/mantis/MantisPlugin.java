@@ -37,7 +37,24 @@ import org.sonar.api.SonarPlugin;
 		@Property(key = MantisPlugin.USERNAME_PROPERTY, defaultValue = "", name = "Username", global = true, project = true, module = false),
 		@Property(key = MantisPlugin.PASSWORD_PROPERTY, defaultValue = "", name = "Password", global = true, project = true, module = false),
 		@Property(key = MantisPlugin.PROJECTNAME_PROPERTY, defaultValue = "", name = "Project name", global = false, project = true, module = true),
-		@Property(key = MantisPlugin.FILTER_PROPERTY, defaultValue = "", name = "Filter name", description = "Case sensitive, example : SONAR-current-iteration", global = false, project = true, module = true) })
+		@Property(key = MantisPlugin.FILTER_PROPERTY, defaultValue = "", name = "Filter name", description = "Case sensitive, example : SONAR-current-iteration", global = false, project = true, module = true),
+		@Property(key = MantisPlugin.BACKEND_PROPERTY, defaultValue = MantisPlugin.BACKEND_SOAP, name = "Backend", description = "API used to read the issues: 'soap' for MantisConnect, 'rest' for the REST API of Mantis 2.x. With 'rest' the password is the API token of the user.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.HISTORY_PROPERTY, defaultValue = "true", name = "Keep history", description = "Keep daily aggregates of the issues between analyses to compute the opened and closed issues trends.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.HISTORY_DIR_PROPERTY, defaultValue = "", name = "History directory", description = "Directory of the daily aggregates. Leave empty to use ~/.sonar/mantis.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.DEVELOPERS_MAX_PROPERTY, defaultValue = "", name = "Maximum number of developers", description = "Number of developers with the most issues kept in the distribution by developer, the others being grouped. Leave empty to keep every developer.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.VIEWS_PROPERTY, defaultValue = "", name = "Views", description = "Comma separated names of views evaluated locally on the issues of the filter, or of the whole project when the filter is empty. The condition of each view is set in sonar.mantis.view.<name>, for instance: status != resolved && (priority == high || priority == urgent).", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.PREFETCH_PROPERTY, defaultValue = "true", name = "Prefetch issues", description = "Start reading the issues in background as soon as the analysis starts.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.PAGE_SIZE_PROPERTY, defaultValue = "50", name = "Page size", description = "Number of issues requested per call to Mantis.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.SAMPLING_BUDGET_PROPERTY, defaultValue = "", name = "Sampling budget", description = "Number of seconds spent reading random pages of issues, the measures being then extrapolated and marked as estimated. Leave empty to read every issue.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.HEDGE_PERCENTILE_PROPERTY, defaultValue = "", name = "Hedged requests percentile", description = "A page request slower than this percentile of the previous ones, for instance 95, is sent again and the first answer is kept. Leave empty to never send a request twice.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.HEDGE_RATE_PROPERTY, defaultValue = "0.05", name = "Maximum hedged requests rate", description = "Maximum fraction of the page requests that are sent twice.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.DETAILS_THREADS_PROPERTY, defaultValue = "4", name = "Concurrent issue reads", description = "Number of issues read at the same time when a rule needs their notes.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.JOURNAL_WINDOW_PROPERTY, defaultValue = "", name = "Fetch journal window", description = "Keep a local journal of the pages read, so that an analysis started within this number of minutes after a failed one resumes the fetch from its last good page. Leave empty to keep no journal.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.TIMEOUT_CONNECT_PROPERTY, defaultValue = "10", name = "Connection timeout", description = "Number of seconds to wait for the connection to the Mantis REST API. 0 to wait forever.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.TIMEOUT_READ_PROPERTY, defaultValue = "60", name = "Read timeout", description = "Number of seconds to wait for the Mantis REST API to send its answer. 0 to wait forever.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.RATE_REQUESTS_PROPERTY, defaultValue = "", name = "Maximum request rate", description = "Maximum number of requests per second sent to the Mantis server. Leave empty for no limit.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.RATE_CONCURRENCY_PROPERTY, defaultValue = "", name = "Maximum concurrent requests", description = "Maximum number of requests in flight to the Mantis server, at most 64 when the limits are shared across the host. Leave empty for no limit.", global = true, project = true, module = false),
+		@Property(key = MantisPlugin.RATE_SHARED_PROPERTY, defaultValue = "false", name = "Share request limits across the host", description = "Coordinate the request limits with the other analyses running on the same host through a lock file in the temporary directory. At most 64 concurrent requests can then be allowed.", global = true, project = true, module = false) })
 public class MantisPlugin extends SonarPlugin {
 
 	public final static String SERVER_URL_PROPERTY = "sonar.mantis.url";
@@ -45,12 +62,34 @@ public class MantisPlugin extends SonarPlugin {
 	public final static String PASSWORD_PROPERTY = "sonar.mantis.password.secured";
 	public final static String FILTER_PROPERTY = "sonar.mantis.filter.param";
 	public final static String PROJECTNAME_PROPERTY = "sonar.mantis.project.param";
+	public final static String BACKEND_PROPERTY = "sonar.mantis.backend";
+	public final static String BACKEND_SOAP = "soap";
+	public final static String BACKEND_REST = "rest";
+	public final static String HISTORY_PROPERTY = "sonar.mantis.history";
+	public final static String HISTORY_DIR_PROPERTY = "sonar.mantis.history.dir";
+	public final static String DEVELOPERS_MAX_PROPERTY = "sonar.mantis.developers.max";
+	public final static String VIEWS_PROPERTY = "sonar.mantis.views";
+	public final static String VIEW_PROPERTY_PREFIX = "sonar.mantis.view.";
+	public final static String PREFETCH_PROPERTY = "sonar.mantis.prefetch";
+	public final static String PAGE_SIZE_PROPERTY = "sonar.mantis.page.size";
+	public final static String SAMPLING_BUDGET_PROPERTY = "sonar.mantis.sampling.budget";
+	public final static String HEDGE_PERCENTILE_PROPERTY = "sonar.mantis.hedge.percentile";
+	public final static String HEDGE_RATE_PROPERTY = "sonar.mantis.hedge.rate";
+	public final static String DETAILS_THREADS_PROPERTY = "sonar.mantis.details.threads";
+	public final static String JOURNAL_WINDOW_PROPERTY = "sonar.mantis.journal.window";
+	public final static String TIMEOUT_CONNECT_PROPERTY = "sonar.mantis.timeout.connect";
+	public final static String TIMEOUT_READ_PROPERTY = "sonar.mantis.timeout.read";
+	public final static String RATE_REQUESTS_PROPERTY = "sonar.mantis.rate.requests";
+	public final static String RATE_CONCURRENCY_PROPERTY = "sonar.mantis.rate.concurrency";
+	public final static String RATE_SHARED_PROPERTY = "sonar.mantis.rate.shared";
 
 	public List<Class<? extends Extension>> getExtensions() {
 		List<Class<? extends Extension>> list = new ArrayList<Class<? extends Extension>>();
         list.add(MantisRuleRepository.class);
 		list.add(MantisMetrics.class);
 		list.add(MantisSensor.class);
+		list.add(MantisPrefetch.class);
+		list.add(MantisPrefetcher.class);
 		list.add(MantisWidget.class);
 		list.add(MantisDeveloperWidget.class);
 		return list;
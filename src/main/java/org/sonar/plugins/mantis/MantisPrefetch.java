@@ -0,0 +1,105 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.BatchExtension;
+import org.sonar.api.utils.SonarException;
+
+/**
+ * Fetches of Mantis issues running in the background while the rest of the batch goes on, keyed by project and
+ * configuration.
+ * The fetches that are still running when the batch stops, normally or not, are cancelled.
+ *
+ * @since 0.5
+ */
+public class MantisPrefetch implements BatchExtension {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MantisPrefetch.class);
+
+  private final Map<String, Future<FetchedIssues>> fetches = new ConcurrentHashMap<String, Future<FetchedIssues>>();
+  private ExecutorService executor;
+
+  public synchronized void start(String key, Callable<FetchedIssues> fetch) {
+    if (executor == null) {
+      executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "mantis-prefetch");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    LOG.debug("Start fetching the Mantis issues of {} in background", key);
+    Future<FetchedIssues> previous = fetches.put(String.valueOf(key), executor.submit(fetch));
+    if (previous != null) {
+      previous.cancel(true);
+    }
+  }
+
+  /**
+   * Waits for the background fetch of the key and hands it over, only once.
+   *
+   * @return the fetched issues, null if no fetch was started for the key
+   */
+  public FetchedIssues take(String key) {
+    Future<FetchedIssues> fetch = fetches.remove(String.valueOf(key));
+    if (fetch == null) {
+      return null;
+    }
+    try {
+      return fetch.get();
+    } catch (InterruptedException e) {
+      fetch.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new SonarException("Interrupted while waiting for the Mantis issues", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new SonarException("Error fetching the Mantis issues", e.getCause());
+    }
+  }
+
+  /**
+   * Called by the container when the batch stops.
+   */
+  public synchronized void stop() {
+    for (Future<FetchedIssues> fetch : fetches.values()) {
+      fetch.cancel(true);
+    }
+    fetches.clear();
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+}
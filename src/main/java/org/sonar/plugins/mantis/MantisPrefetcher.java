@@ -0,0 +1,70 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.util.Date;
+import java.util.concurrent.Callable;
+
+import org.sonar.api.batch.Initializer;
+import org.sonar.api.config.Settings;
+import org.sonar.api.resources.Project;
+
+/**
+ * Starts reading the Mantis issues as soon as the batch starts, so that the network time overlaps with the
+ * other sensors. {@link MantisSensor} collects the result.
+ *
+ * @since 0.5
+ */
+public class MantisPrefetcher extends Initializer {
+
+  private final Settings settings;
+  private final MantisSensor sensor;
+  private final MantisPrefetch prefetch;
+
+  public MantisPrefetcher(Settings settings, MantisSensor sensor, MantisPrefetch prefetch) {
+    this.settings = settings;
+    this.sensor = sensor;
+    this.prefetch = prefetch;
+  }
+
+  @Override
+  public boolean shouldExecuteOnProject(Project project) {
+    return sensor.shouldExecuteOnProject(project);
+  }
+
+  @Override
+  public void execute(Project project) {
+    final MantisConfiguration configuration = MantisConfiguration.create(settings);
+    final Date date = MantisSensor.analysisDate(project);
+    if (configuration.isComplete() && configuration.isPrefetchEnabled()) {
+      prefetch.start(MantisSensor.prefetchKey(project, configuration), new Callable<FetchedIssues>() {
+        public FetchedIssues call() {
+          return sensor.fetch(configuration, date);
+        }
+      });
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName();
+  }
+}
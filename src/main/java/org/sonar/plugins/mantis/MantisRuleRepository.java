@@ -24,6 +24,7 @@ import com.google.common.collect.ImmutableList;
 import org.sonar.api.rules.Rule;
 import org.sonar.api.rules.RulePriority;
 import org.sonar.api.rules.RuleRepository;
+import org.sonar.check.Cardinality;
 
 import java.util.List;
 
@@ -82,6 +83,32 @@ public class MantisRuleRepository extends RuleRepository {
                                 .setDefaultValue("new")
                                 .getRule();
 
+  //Tickets waiting for an answer to the reporter
+  static final Rule UNANSWERED_TICKET = Rule.create(REPOSITORY_KEY, "mantis-unanswered-ticket", REPOSITORY_NAME)
+      .setSeverity(RulePriority.MAJOR)
+      .setName("Unanswered mantis ticket")
+      .setDescription("Open tickets whose last note was written by the reporter and got no response for some time. " +
+                      "The notes are only read for the tickets that violate no other rule, and only when this rule is active.")
+      .createParameter("age").setDescription("Maximum time without response to the reporter, in days.")
+                             .setType("i")
+                             .setDefaultValue("7")
+                             .getRule();
+
+  //Template of the rules written as an expression on the issue fields
+  static final Rule EXPRESSION_TICKET = Rule.create(REPOSITORY_KEY, "mantis-expression-ticket", REPOSITORY_NAME)
+      .setSeverity(RulePriority.MAJOR)
+      .setCardinality(Cardinality.MULTIPLE)
+      .setName("Mantis ticket matching an expression")
+      .setDescription("Tickets matching a condition on their fields, for instance " +
+                      "<code>priority &gt;= high &amp;&amp; status == new &amp;&amp; age &gt; 3</code>. " +
+                      "Operators are ==, !=, &lt;, &lt;=, &gt;, &gt;=, &amp;&amp;, || and !. " +
+                      "Fields are id, project, category, status, priority, severity, resolution, reproducibility, reporter, handler, " +
+                      "version, target_version, fixed_in_version, summary, age (days since submission) and idle (days since last update). " +
+                      "Copy this rule once per condition.")
+      .createParameter("expression").setDescription("Condition that the tickets must not match.")
+                                    .setType("s")
+                                    .getRule();
+
   public MantisRuleRepository() {
     super(REPOSITORY_KEY, "mantis");
     setName(REPOSITORY_NAME);
@@ -89,6 +116,6 @@ public class MantisRuleRepository extends RuleRepository {
 
   @Override
   public List<Rule> createRules() {
-    return ImmutableList.of(OLD_TICKET, UNASSIGNED_TICKET, STALLED_TICKET, SELF_ASSIGNED_TICKET);
+    return ImmutableList.of(OLD_TICKET, UNASSIGNED_TICKET, STALLED_TICKET, SELF_ASSIGNED_TICKET, UNANSWERED_TICKET, EXPRESSION_TICKET);
   }
 }
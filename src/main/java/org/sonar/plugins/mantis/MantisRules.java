@@ -0,0 +1,199 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.profiles.RulesProfile;
+import org.sonar.api.rules.ActiveRule;
+import org.sonar.api.rules.Rule;
+import org.sonar.api.utils.SonarException;
+import org.sonar.plugins.mantis.predicate.IssuePredicate;
+import org.sonar.plugins.mantis.predicate.PredicateParser;
+
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+import biz.futureware.mantis.rpc.soap.client.IssueNoteData;
+
+/**
+ * Thresholds of the Mantis rules of a quality profile. Immutable, so it can be shared by concurrent analyses.
+ *
+ * @since 0.5
+ */
+public final class MantisRules {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MantisRules.class);
+
+  private static final long DAY = 24 * 3600 * 1000L;
+
+  /**
+   * Mantis status from which an issue is considered as closed (RESOLVED).
+   */
+  static final int RESOLVED_STATUS = 80;
+
+  private final int oldAge;
+  private final int unassignedAge;
+  private final int stalledAge;
+  private final Set<String> selfAssignedStates;
+  private final int unansweredAge;
+  private final Rule[] expressionRules;
+  private final IssuePredicate[] expressions;
+
+  public MantisRules(RulesProfile profile) {
+    int old = MantisRuleRepository.OLD_TICKET.getParam("age").getDefaultValueAsInteger();
+    int unassigned = MantisRuleRepository.UNASSIGNED_TICKET.getParam("age").getDefaultValueAsInteger();
+    int stalled = MantisRuleRepository.STALLED_TICKET.getParam("age").getDefaultValueAsInteger();
+    Set<String> states = new HashSet<String>();
+    int unanswered = -1;
+    List<Rule> compiledRules = new ArrayList<Rule>();
+    List<IssuePredicate> compiled = new ArrayList<IssuePredicate>();
+
+    List<ActiveRule> rules = profile.getActiveRulesByRepository(MantisRuleRepository.REPOSITORY_KEY);
+    for (ActiveRule r : rules) {
+      if (MantisRuleRepository.OLD_TICKET.getKey().equals(r.getRuleKey())) {
+        old = Integer.parseInt(r.getParameter("age"));
+        LOG.info("old ticket age:" + old);
+      } else if (MantisRuleRepository.UNASSIGNED_TICKET.getKey().equals(r.getRuleKey())) {
+        unassigned = Integer.parseInt(r.getParameter("age"));
+        LOG.info("unassigned ticket age:" + unassigned);
+      } else if (MantisRuleRepository.STALLED_TICKET.getKey().equals(r.getRuleKey())) {
+        stalled = Integer.parseInt(r.getParameter("age"));
+        LOG.info("stalled ticket age:" + stalled);
+      } else if (MantisRuleRepository.SELF_ASSIGNED_TICKET.getKey().equals(r.getRuleKey())) {
+        for (String s : r.getParameter("states").split(",")) {
+          states.add(s);
+        }
+        LOG.info("self assigned states:" + states);
+      } else if (MantisRuleRepository.UNANSWERED_TICKET.getKey().equals(r.getRuleKey())) {
+        unanswered = Integer.parseInt(r.getParameter("age"));
+        LOG.info("unanswered ticket age:" + unanswered);
+      } else if (isExpressionRule(r.getRule())) {
+        String expression = r.getParameter("expression");
+        if (StringUtils.isBlank(expression)) {
+          LOG.warn("Rule '{}' has no expression, ignored", r.getRule().getName());
+          continue;
+        }
+        try {
+          compiled.add(PredicateParser.parse(expression));
+        } catch (IllegalArgumentException e) {
+          throw new SonarException("Error in the expression of the Mantis rule '" + r.getRule().getName() + "': " + e.getMessage(), e);
+        }
+        compiledRules.add(r.getRule());
+        LOG.info("expression rule '" + r.getRule().getName() + "': " + expression);
+      }
+    }
+    this.oldAge = old;
+    this.unassignedAge = unassigned;
+    this.stalledAge = stalled;
+    this.selfAssignedStates = Collections.unmodifiableSet(states);
+    this.unansweredAge = unanswered;
+    this.expressionRules = compiledRules.toArray(new Rule[compiledRules.size()]);
+    this.expressions = compiled.toArray(new IssuePredicate[compiled.size()]);
+  }
+
+  /**
+   * @return true for the expression rule template and the rules copied from it
+   */
+  private static boolean isExpressionRule(Rule rule) {
+    String key = MantisRuleRepository.EXPRESSION_TICKET.getKey();
+    return rule != null && (key.equals(rule.getKey()) || (rule.getParent() != null && key.equals(rule.getParent().getKey())));
+  }
+
+  /**
+   * @return the rule violated by the issue at the given date, null if none
+   */
+  public Rule check(IssueData issue, Date date) {
+    if (daysElapsed(issue.getDate_submitted().getTime(), date) >= oldAge) {
+      return MantisRuleRepository.OLD_TICKET;
+    }
+    if (issue.getHandler() == null && daysElapsed(issue.getDate_submitted().getTime(), date) >= unassignedAge) {
+      return MantisRuleRepository.UNASSIGNED_TICKET;
+    }
+    if (daysElapsed(issue.getLast_updated().getTime(), date) >= stalledAge) {
+      return MantisRuleRepository.STALLED_TICKET;
+    }
+    if ((selfAssignedStates.isEmpty() || selfAssignedStates.contains(issue.getStatus().getName()))
+      && issue.getReporter() != null
+      && issue.getHandler() != null
+      && issue.getReporter().getId().equals(issue.getHandler().getId())) {
+      return MantisRuleRepository.SELF_ASSIGNED_TICKET;
+    }
+    for (int i = 0; i < expressions.length; i++) {
+      if (expressions[i].matches(issue, date)) {
+        return expressionRules[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Tells whether the notes of the issue must be read, which is only the case for the open issues that violate
+   * none of the rules checked by {@link #check(IssueData, Date)} and that are old enough to be unanswered.
+   */
+  public boolean needsNotes(IssueData issue, Date date) {
+    return unansweredAge >= 0 && issue.getNotes() == null && isOpen(issue) && issue.getReporter() != null
+      && daysElapsed(issue.getDate_submitted().getTime(), date) >= unansweredAge
+      && check(issue, date) == null;
+  }
+
+  /**
+   * Checks the rules that need the notes of an issue for which {@link #check(IssueData, Date)} found nothing.
+   *
+   * @param details the issue read with its notes, null to use the notes of the issue itself
+   * @return the rule violated by the issue at the given date, null if none or if the notes are unknown
+   */
+  public Rule checkNotes(IssueData issue, IssueData details, Date date) {
+    if (unansweredAge < 0 || !isOpen(issue) || issue.getReporter() == null) {
+      return null;
+    }
+    IssueNoteData[] notes = details != null ? details.getNotes() : issue.getNotes();
+    if (notes == null) {
+      return null;
+    }
+    IssueNoteData last = null;
+    for (IssueNoteData note : notes) {
+      if (note.getDate_submitted() != null && (last == null || note.getDate_submitted().after(last.getDate_submitted()))) {
+        last = note;
+      }
+    }
+    if (last != null && last.getReporter() != null && issue.getReporter().getId().equals(last.getReporter().getId())
+      && daysElapsed(last.getDate_submitted().getTime(), date) >= unansweredAge) {
+      return MantisRuleRepository.UNANSWERED_TICKET;
+    }
+    return null;
+  }
+
+  static boolean isOpen(IssueData issue) {
+    return issue.getStatus() == null || issue.getStatus().getId() == null
+      || issue.getStatus().getId().intValue() < RESOLVED_STATUS;
+  }
+
+  public static long daysElapsed(Date from, Date to) {
+    return (to.getTime() - from.getTime()) / DAY;
+  }
+}
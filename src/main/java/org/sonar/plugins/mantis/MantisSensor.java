@@ -20,11 +20,20 @@
 
 package org.sonar.plugins.mantis;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.rmi.RemoteException;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -34,12 +43,14 @@ import org.sonar.api.batch.SensorContext;
 import org.sonar.api.config.Settings;
 import org.sonar.api.measures.CountDistributionBuilder;
 import org.sonar.api.measures.Measure;
+import org.sonar.api.measures.RangeDistributionBuilder;
 import org.sonar.api.profiles.RulesProfile;
 import org.sonar.api.resources.Project;
-import org.sonar.api.rules.ActiveRule;
 import org.sonar.api.rules.Rule;
 import org.sonar.api.rules.Violation;
 import org.sonar.api.utils.SonarException;
+import org.sonar.plugins.mantis.predicate.IssuePredicate;
+import org.sonar.plugins.mantis.rest.MantisRestService;
 import org.sonar.plugins.mantis.soap.MantisSoapService;
 
 import biz.futureware.mantis.rpc.soap.client.FilterData;
@@ -53,106 +64,212 @@ public class MantisSensor implements Sensor {
 
   private static final Logger LOG = LoggerFactory.getLogger(MantisSensor.class);
 
-  private String serverUrl;
-  private String username;
-  private String password;
-  private String filterName;
-  private Settings settings;
-  private RulesProfile profile;
+  /**
+   * Key grouping the developers that are not among the top developers.
+   */
+  static final String OTHER_DEVELOPERS = "(others)";
 
-  private int oldAge = MantisRuleRepository.OLD_TICKET.getParam("age").getDefaultValueAsInteger();
-  private int unassignedAge = MantisRuleRepository.UNASSIGNED_TICKET.getParam("age").getDefaultValueAsInteger();
-  private int stalledAge = MantisRuleRepository.STALLED_TICKET.getParam("age").getDefaultValueAsInteger();
-  private Set<String> selfAssignedStates = new HashSet<String>();
+  /**
+   * Period of the opened and closed issues trends, in days.
+   */
+  private static final int TREND_DAYS = 30;
 
-  public MantisSensor(Settings settings, RulesProfile profile) {
-    this.settings = settings;
-    this.profile = profile;
+  private static final Integer[] AGE_LIMITS;
 
-    List<ActiveRule> rules = profile.getActiveRulesByRepository(MantisRuleRepository.REPOSITORY_KEY);
-    for (ActiveRule r: rules) {
-      if (r.getRuleKey() == MantisRuleRepository.OLD_TICKET.getKey()) {
-        oldAge = Integer.parseInt(r.getParameter("age"));
-        LOG.info("old ticket age:" + oldAge);
-      }
-      else if (r.getRuleKey() == MantisRuleRepository.UNASSIGNED_TICKET.getKey()) {
-        unassignedAge = Integer.parseInt(r.getParameter("age"));
-        LOG.info("unassigned ticket age:" + unassignedAge);
-      }
-      else if (r.getRuleKey() == MantisRuleRepository.STALLED_TICKET.getKey()) {
-        stalledAge = Integer.parseInt(r.getParameter("age"));
-        LOG.info("stalled ticket age:" + stalledAge);
-      }
-      else if (r.getRuleKey() == MantisRuleRepository.SELF_ASSIGNED_TICKET.getKey()) {
-        for (String s: r.getParameter("states").split(",")) {
-          selfAssignedStates.add(s);
-        }
-        LOG.info("self assigned states:" + selfAssignedStates);
-      }
+  static {
+    AGE_LIMITS = new Integer[MantisHistory.AGE_LIMITS.length];
+    for (int i = 0; i < AGE_LIMITS.length; i++) {
+      AGE_LIMITS[i] = MantisHistory.AGE_LIMITS[i];
     }
-
   }
 
+  private final Settings settings;
+  private final RulesProfile profile;
+  private final MantisPrefetch prefetch;
+
+  public MantisSensor(Settings settings, RulesProfile profile) {
+    this(settings, profile, null);
+  }
 
-  public String getServerUrl() {
-    return serverUrl;
+  /**
+   * @param prefetch background fetches started by {@link MantisPrefetcher}, null to always fetch synchronously
+   */
+  public MantisSensor(Settings settings, RulesProfile profile, MantisPrefetch prefetch) {
+    this.settings = settings;
+    this.profile = profile;
+    this.prefetch = prefetch;
   }
 
-  public String getUsername() {
-    return username;
+  public void analyse(Project project, SensorContext context) {
+    analyse(project, context, MantisConfiguration.create(settings));
   }
 
-  public String getPassword() {
-    return password;
+  /**
+   * Analyses a project with its own configuration. The sensor keeps no state between analyses, so a single
+   * instance can analyse several projects concurrently.
+   */
+  public void analyse(Project project, SensorContext context, MantisConfiguration configuration) {
+    if (!configuration.isComplete()) {
+      LOG.warn("The server url, the project name, the filter name, the username and the password must not be empty.");
+      return;
+    }
+    MantisRules rules = new MantisRules(profile);
+    FetchedIssues fetched = prefetch != null ? prefetch.take(prefetchKey(project, configuration)) : null;
+    if (fetched == null) {
+      fetched = fetch(configuration, rules, analysisDate(project));
+    }
+    analyze(project, context, configuration, rules, fetched);
   }
 
-  public String getFilterName() {
-    return filterName;
+  /**
+   * @return identifies the background fetch of the project, which is only used by an analysis with the same
+   *         server, backend, project and filter as the configuration it was started with
+   */
+  static String prefetchKey(Project project, MantisConfiguration configuration) {
+    return project.getKey() + "|" + configuration.getFetchKey();
   }
 
-  public String getProjectName() {
-    return projectName;
+  /**
+   * @return the date of the analysis of the project, now if unknown
+   */
+  static Date analysisDate(Project project) {
+    Date date = project.getAnalysisDate();
+    return date != null ? date : new Date();
   }
 
-  private String projectName;
+  /**
+   * Reads the issues of the configured project and filter. Called by the sensor itself or in background by
+   * {@link MantisPrefetcher}.
+   *
+   * @param date date of the analysis, at which the rules tell which issues need their notes
+   */
+  public FetchedIssues fetch(MantisConfiguration configuration, Date date) {
+    return fetch(configuration, new MantisRules(profile), date);
+  }
 
-  public void analyse(Project project, SensorContext context) {
-    initParams(project);
-    if (!isMandatoryParametersNotEmpty()) {
-      LOG.warn("The server url, the project name, the filter name, the username and the password must not be empty.");
-      return;
-    }
+  FetchedIssues fetch(MantisConfiguration configuration, MantisRules rules, Date date) {
     try {
-      MantisSoapService service = createMantisSoapService();
-      service.connect(username, password, projectName);
-      analyze(project, context, service);
-      service.disconnect();
+      IssueSource service = openIssueSource(configuration);
+      try {
+        service.connect(configuration.getUsername(), configuration.getPassword(), configuration.getProjectName());
+        FilterData filter = findFilter(configuration, service);
+        IssueSample sample = sample(configuration, service, filter);
+        if (sample != null && !sample.isComplete()) {
+          return new FetchedIssues(service.getProjectId(), sample, loadDetails(configuration, rules, service, sample.getIssues(), date));
+        }
+        // a complete sample already holds every issue, once
+        IssueData[] issues = sample != null ? sample.getIssues() : service.getIssues(filter);
+        return new FetchedIssues(service.getProjectId(), issues, loadDetails(configuration, rules, service, issues, date));
+      } finally {
+        service.disconnect();
+      }
     } catch (RemoteException e) {
       throw new SonarException("Error accessing Mantis web service, please verify the parameters", e);
     }
   }
 
-  protected MantisSoapService createMantisSoapService() throws RemoteException {
+  /**
+   * Creates the backend of the configuration, with the paging settings applied but not yet connected.
+   */
+  IssueSource openIssueSource(MantisConfiguration configuration) throws RemoteException {
+    IssueSource service = createIssueSource(configuration);
+    if (service instanceof PagedIssueSource) {
+      PagedIssueSource paged = (PagedIssueSource) service;
+      paged.setPageSize(configuration.getPageSize());
+      if (configuration.getHedgePercentile() > 0) {
+        paged.setHedgingPolicy(new HedgingPolicy(configuration.getHedgePercentile(), configuration.getHedgeRate()));
+      }
+      if (configuration.getJournalWindow() > 0) {
+        paged.setJournal(new FetchJournal(configuration.getJournalFile(), configuration.getJournalKey(),
+            configuration.getJournalWindow() * 60 * 1000L));
+      }
+    }
+    return service;
+  }
+
+  protected IssueSource createIssueSource(MantisConfiguration configuration) throws RemoteException {
+    String backend = configuration.getBackend();
+    if (MantisPlugin.BACKEND_REST.equals(backend)) {
+      return new MantisRestService(configuration.getServerUrl(), createRateLimiter(configuration), configuration.getConnectTimeout(),
+          configuration.getReadTimeout());
+    }
+    if (!MantisPlugin.BACKEND_SOAP.equals(backend)) {
+      throw new SonarException("Unknown Mantis backend '" + backend + "', expected '" + MantisPlugin.BACKEND_SOAP + "' or '"
+        + MantisPlugin.BACKEND_REST + "'");
+    }
+    return createMantisSoapService(configuration);
+  }
+
+  protected MantisSoapService createMantisSoapService(MantisConfiguration configuration) throws RemoteException {
+    String serverUrl = configuration.getServerUrl();
     URL url;
     try {
       url = new URL(serverUrl + "/api/soap/mantisconnect.php");
     } catch (MalformedURLException e) {
       throw new SonarException("Error Mantis web service url \"" + serverUrl + "/api/soap/mantisconnect.php" + "\", please verify the parameters", e);
     }
-    return new MantisSoapService(url);
+    return new MantisSoapService(url, createRateLimiter(configuration));
   }
 
-  private long daysElapsed(Date from, Date to)
-  {
-    return (to.getTime() - from.getTime()) / (24*3600*1000);
+  protected RateLimiter createRateLimiter(MantisConfiguration configuration) {
+    double requestsPerSecond = configuration.getRequestsPerSecond();
+    int concurrency = configuration.getConcurrency();
+    if (requestsPerSecond <= 0 && concurrency <= 0) {
+      return null;
+    }
+    String serverUrl = configuration.getServerUrl();
+    File lockFile = null;
+    if (configuration.isSharedRate()) {
+      lockFile = new File(System.getProperty("java.io.tmpdir"), "sonar-mantis-" + Integer.toHexString(serverUrl.hashCode()) + ".lock");
+    }
+    try {
+      return RateLimiter.get(serverUrl, requestsPerSecond, concurrency, lockFile);
+    } catch (IOException e) {
+      throw new SonarException("Unable to create the Mantis rate limiter with lock file " + lockFile, e);
+    }
+  }
+
+  /**
+   * @return random pages of the issues if the measures are to be estimated, complete if every page could be read
+   *         within the budget; null to read every issue
+   */
+  private IssueSample sample(MantisConfiguration configuration, IssueSource service, FilterData filter) throws RemoteException {
+    if (configuration.getSamplingBudget() <= 0) {
+      return null;
+    }
+    if (!(service instanceof PagedIssueSource)) {
+      LOG.warn("The {} backend cannot sample the issues, every issue is read", configuration.getBackend());
+      return null;
+    }
+    IssueSample sample = new IssueSampler((PagedIssueSource) service, configuration.getSamplingBudget() * 1000L, new Random()).sample(filter);
+    return sample;
+  }
+
+  /**
+   * Reads the details of the issues that the rules cannot check from the issue pages only.
+   */
+  Map<BigInteger, IssueData> loadDetails(MantisConfiguration configuration, MantisRules rules, IssueSource service,
+      IssueData[] issues, Date date) throws RemoteException {
+    List<IssueData> candidates = new ArrayList<IssueData>();
+    for (IssueData issue : issues) {
+      if (rules.needsNotes(issue, date)) {
+        candidates.add(issue);
+      }
+    }
+    if (candidates.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    LOG.info("Reading the notes of {} issues", candidates.size());
+    return new IssueDetailLoader(service, configuration.getDetailThreads()).load(candidates);
   }
 
-  private void analyze(Project project, SensorContext context, MantisSoapService service) throws RemoteException {
+  FilterData findFilter(MantisConfiguration configuration, IssueSource service) throws RemoteException {
+    String filterName = configuration.getFilterName();
     FilterData filter = null;
-    if (getFilterName() != null) {
+    if (filterName != null) {
       FilterData[] filters = service.getFilters();
       for (FilterData f : filters) {
-        if (getFilterName().equals(f.getName())) {
+        if (filterName.equals(f.getName())) {
           filter = f;
         }
       }
@@ -165,69 +282,241 @@ public class MantisSensor implements Sensor {
         throw new SonarException("Unable to find filter '" + filterName + "' in Mantis");
       }
     }
+    return filter;
+  }
 
-    IssueData[] issues = service.getIssues(filter);
+  void analyze(Project project, SensorContext context, MantisConfiguration configuration, MantisRules rules, FetchedIssues fetched) {
+    IssueData[] issues = fetched.getIssues();
     CountDistributionBuilder issuesByPriority = new CountDistributionBuilder(MantisMetrics.PRIORITIES);
     CountDistributionBuilder issuesByStatus = new CountDistributionBuilder(MantisMetrics.STATUS);
     CountDistributionBuilder issuesByDevelopers = new CountDistributionBuilder(MantisMetrics.DEVELOPERS);
+    int maxDevelopers = configuration.getMaxDevelopers();
+    SpaceSavingCounter topDevelopers = maxDevelopers > 0 ? new SpaceSavingCounter(maxDevelopers * 4) : null;
 
-    Date date = project.getAnalysisDate();
-    if (date == null)
-      date = new Date();  //current time
+    Date date = analysisDate(project);
 
-    for (IssueData issue : issues) {
-      issuesByPriority.add(new MantisProperty(issue.getPriority()));
-      issuesByStatus.add(new MantisProperty(issue.getStatus()));
-      issuesByDevelopers.add(issue.getHandler() != null ? issue.getHandler().getName() : "unassigned");
+    String[] viewNames = configuration.getViews().keySet().toArray(new String[configuration.getViews().size()]);
+    IssuePredicate[] views = configuration.getViews().values().toArray(new IssuePredicate[viewNames.length]);
+    int[] viewCounts = new int[views.length];
 
-      Rule rule = null;
-      if (daysElapsed(issue.getDate_submitted().getTime(), date) >= oldAge) {
-        rule = MantisRuleRepository.OLD_TICKET;
+    ClusterEstimator estimator = fetched.getSample() != null ? new ClusterEstimator(fetched.getSample()) : null;
+    if (estimator != null) {
+      for (String viewName : viewNames) {
+        estimator.declare(MantisMetrics.VIEWS, viewName);
       }
-      else if (issue.getHandler() == null &&
-          daysElapsed(issue.getDate_submitted().getTime(), date) >= unassignedAge) {
-        rule = MantisRuleRepository.UNASSIGNED_TICKET;
+    }
+
+    Object event = MantisEvents.RULE_EVALUATION.begin();
+    int violations = 0;
+    for (int index = 0; index < issues.length; index++) {
+      IssueData issue = issues[index];
+      MantisProperty priority = new MantisProperty(issue.getPriority());
+      MantisProperty status = new MantisProperty(issue.getStatus());
+      issuesByPriority.add(priority);
+      issuesByStatus.add(status);
+      String developer = developer(issue);
+      if (topDevelopers != null) {
+        topDevelopers.add(developer);
+      } else {
+        issuesByDevelopers.add(developer);
       }
-      else if (daysElapsed(issue.getLast_updated().getTime(), date) >= stalledAge) {
-        rule = MantisRuleRepository.STALLED_TICKET;
+      if (estimator != null) {
+        estimator.add(MantisMetrics.PRIORITIES, priority, index);
+        estimator.add(MantisMetrics.STATUS, status, index);
+        estimator.add(MantisMetrics.DEVELOPERS, developer, index);
       }
-      else if ((selfAssignedStates.isEmpty() || selfAssignedStates.contains(issue.getStatus().getName())) &&
-          issue.getReporter() != null &&
-          issue.getHandler() != null  &&
-          issue.getReporter().getId() == issue.getHandler().getId()) {
-        rule = MantisRuleRepository.SELF_ASSIGNED_TICKET;
+
+      for (int i = 0; i < views.length; i++) {
+        if (views[i].matches(issue, date)) {
+          viewCounts[i]++;
+          if (estimator != null) {
+            estimator.add(MantisMetrics.VIEWS, viewNames[i], index);
+          }
+        }
       }
 
+      Rule rule = rules.check(issue, date);
+      if (rule == null) {
+        rule = rules.checkNotes(issue, fetched.getDetails(issue.getId()), date);
+      }
       if (rule != null) {
-        LOG.info("Mantis #" + issue.getId() + ": " + rule.getName());
+        violations++;
+        if (estimator != null) {
+          estimator.add(MantisMetrics.ESTIMATED_VIOLATIONS, rule.getKey(), index);
+        }
+        LOG.debug("Mantis #{}: {}", issue.getId(), rule.getName());
         context.saveViolation(Violation.create(rule, project)
             .setMessage("[#" + issue.getId() + "]" + issue.getSummary() + ": " + rule.getName()));
       }
     }
+    if (event != null) {
+      MantisEvents.RULE_EVALUATION.commit(event, project.getKey(), issues.length, violations);
+    }
+
+    if (estimator != null) {
+      saveEstimates(context, configuration, getIssuesUrl(configuration, fetched.getProjectId()), estimator, views.length > 0);
+      return;
+    }
+
+    if (topDevelopers != null) {
+      int shown = 0;
+      for (Map.Entry<String, Integer> developer : countTopDevelopers(issues, topDevelopers, maxDevelopers)) {
+        issuesByDevelopers.add(developer.getKey(), developer.getValue());
+        shown += developer.getValue();
+      }
+      if (issues.length > shown) {
+        issuesByDevelopers.add(OTHER_DEVELOPERS, issues.length - shown);
+      }
+    }
+
+    String url = getIssuesUrl(configuration, fetched.getProjectId());
+    saveMeasures(context, url, new Measure(MantisMetrics.ISSUES).setIntValue(issues.length));
+    saveMeasures(context, url, issuesByPriority.build().setValue((double) issues.length));
+    saveMeasures(context, url, issuesByStatus.build().setValue((double) issues.length));
+    saveMeasures(context, url, issuesByDevelopers.build().setValue((double) issues.length));
+    if (views.length > 0) {
+      CountDistributionBuilder issuesByView = new CountDistributionBuilder(MantisMetrics.VIEWS);
+      for (int i = 0; i < views.length; i++) {
+        issuesByView.add(viewNames[i], viewCounts[i]);
+      }
+      saveMeasures(context, url, issuesByView.build().setValue((double) issues.length));
+    }
+    if (configuration.isHistoryEnabled()) {
+      saveHistory(project, context, configuration, url, issues, date);
+    }
+  }
+
+  /**
+   * Counts exactly, in a second pass over the issues, the developers monitored by the heavy-hitter counter, whose
+   * own counts are over-estimated once it has evicted a value.
+   *
+   * @return the <code>maxDevelopers</code> developers having the most issues, by decreasing count
+   */
+  private static List<Map.Entry<String, Integer>> countTopDevelopers(IssueData[] issues, SpaceSavingCounter counter, int maxDevelopers) {
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    for (String developer : counter.top(Integer.MAX_VALUE)) {
+      counts.put(developer, 0);
+    }
+    for (IssueData issue : issues) {
+      String developer = developer(issue);
+      Integer count = counts.get(developer);
+      if (count != null) {
+        counts.put(developer, count + 1);
+      }
+    }
+    List<Map.Entry<String, Integer>> top = new ArrayList<Map.Entry<String, Integer>>(counts.entrySet());
+    Collections.sort(top, new Comparator<Map.Entry<String, Integer>>() {
+      public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2) {
+        int c = o2.getValue().compareTo(o1.getValue());
+        return c != 0 ? c : o1.getKey().compareTo(o2.getKey());
+      }
+    });
+    return top.size() > maxDevelopers ? top.subList(0, maxDevelopers) : top;
+  }
 
-    saveMeasures(context, service.getProjectId(), new Measure(MantisMetrics.ISSUES).setIntValue(issues.length));
-    saveMeasures(context, service.getProjectId(), issuesByPriority.build().setValue((double) issues.length));
-    saveMeasures(context, service.getProjectId(), issuesByStatus.build().setValue((double) issues.length));
-    saveMeasures(context, service.getProjectId(), issuesByDevelopers.build().setValue((double) issues.length));
+  private static String developer(IssueData issue) {
+    return issue.getHandler() != null ? issue.getHandler().getName() : "unassigned";
   }
 
-  protected void initParams(Project project) {
-    serverUrl = settings.getString(MantisPlugin.SERVER_URL_PROPERTY);
-    username = settings.getString(MantisPlugin.USERNAME_PROPERTY);
-    password = settings.getString(MantisPlugin.PASSWORD_PROPERTY);
-    filterName = settings.getString(MantisPlugin.FILTER_PROPERTY);
-    projectName = settings.getString(MantisPlugin.PROJECTNAME_PROPERTY);
+  /**
+   * Saves the measures extrapolated from a sample. The history is left untouched, the open issues being unknown.
+   */
+  private void saveEstimates(SensorContext context, MantisConfiguration configuration, String url, ClusterEstimator estimator,
+      boolean withViews) {
+    saveMeasures(context, url, new Measure(MantisMetrics.ISSUES).setIntValue(estimator.getTotal()));
+    saveMeasures(context, url, estimator.distribution(MantisMetrics.PRIORITIES, 0, null));
+    saveMeasures(context, url, estimator.distribution(MantisMetrics.STATUS, 0, null));
+    saveMeasures(context, url, estimator.distribution(MantisMetrics.DEVELOPERS, configuration.getMaxDevelopers(), OTHER_DEVELOPERS));
+    if (withViews) {
+      saveMeasures(context, url, estimator.distribution(MantisMetrics.VIEWS, 0, null));
+    }
+    saveMeasures(context, url, estimator.distribution(MantisMetrics.ESTIMATED_VIOLATIONS, 0, null)
+        .setValue((double) estimator.sum(MantisMetrics.ESTIMATED_VIOLATIONS)));
+    saveMeasures(context, url, new Measure(MantisMetrics.ESTIMATED, 1.0));
+    saveMeasures(context, url, new Measure(MantisMetrics.ESTIMATE_BOUNDS, estimator.bounds()));
   }
 
-  protected boolean isMandatoryParametersNotEmpty() {
-    return StringUtils.isNotEmpty(serverUrl) && StringUtils.isNotEmpty(projectName)
-      && StringUtils.isNotEmpty(username) && StringUtils.isNotEmpty(password);
+  private void saveHistory(Project project, SensorContext context, MantisConfiguration configuration, String url, IssueData[] issues, Date date) {
+    long[] openIds = new long[issues.length];
+    int openCount = 0;
+    int[] ageBuckets = new int[MantisHistory.AGE_LIMITS.length];
+    for (IssueData issue : issues) {
+      if (MantisRules.isOpen(issue)) {
+        openIds[openCount++] = issue.getId().longValue();
+        ageBuckets[ageBucket(MantisRules.daysElapsed(issue.getDate_submitted().getTime(), date))]++;
+      }
+    }
+
+    MantisHistory.Record record;
+    MantisHistory.Record periodStart;
+    try {
+      MantisHistory history = new MantisHistory(getHistoryDirectory(project, configuration));
+      long[] previousIds = history.readOpenIds();
+      int opened = 0;
+      int closed = 0;
+      if (previousIds != null) {
+        LongHashSet current = new LongHashSet(openCount);
+        for (int i = 0; i < openCount; i++) {
+          current.add(openIds[i]);
+        }
+        LongHashSet previous = new LongHashSet(previousIds.length);
+        for (long id : previousIds) {
+          previous.add(id);
+          if (!current.contains(id)) {
+            closed++;
+          }
+        }
+        for (int i = 0; i < openCount; i++) {
+          if (!previous.contains(openIds[i])) {
+            opened++;
+          }
+        }
+      }
+      int today = MantisHistory.day(date.getTime());
+      record = history.append(today, opened, closed, ageBuckets);
+      history.writeOpenIds(openIds, openCount);
+      periodStart = history.find(today - TREND_DAYS);
+    } catch (IOException e) {
+      LOG.warn("Unable to update the Mantis history, trends are not computed", e);
+      return;
+    }
+
+    long openedInPeriod = record.getCumulatedOpened() - (periodStart != null ? periodStart.getCumulatedOpened() : 0);
+    long closedInPeriod = record.getCumulatedClosed() - (periodStart != null ? periodStart.getCumulatedClosed() : 0);
+    RangeDistributionBuilder issuesByAge = new RangeDistributionBuilder(MantisMetrics.OPEN_ISSUES_AGE, AGE_LIMITS);
+    for (int i = 0; i < ageBuckets.length; i++) {
+      issuesByAge.add(AGE_LIMITS[i], ageBuckets[i]);
+    }
+    saveMeasures(context, url, new Measure(MantisMetrics.OPENED_ISSUES).setIntValue((int) openedInPeriod));
+    saveMeasures(context, url, new Measure(MantisMetrics.CLOSED_ISSUES).setIntValue((int) closedInPeriod));
+    saveMeasures(context, url, issuesByAge.build().setValue((double) openCount));
+  }
+
+  private static int ageBucket(long days) {
+    int bucket = 0;
+    while (bucket + 1 < MantisHistory.AGE_LIMITS.length && days >= MantisHistory.AGE_LIMITS[bucket + 1]) {
+      bucket++;
+    }
+    return bucket;
+  }
+
+  protected File getHistoryDirectory(Project project, MantisConfiguration configuration) {
+    String key = StringUtils.defaultIfEmpty(project.getKey(), "default").replaceAll("[^a-zA-Z0-9_.-]", "_");
+    String filter = StringUtils.defaultString(configuration.getFilterName());
+    return new File(configuration.getHistoryDirectory(), key + "-" + Integer.toHexString(filter.hashCode()));
   }
 
-  protected void saveMeasures(SensorContext context, BigInteger projectId, Measure issuesMeasure) {
-    String url = serverUrl + "/search.php?project_id=" + projectId + "&sticky_issues=on&sortby=property&dir=DESC&hide_status_id=-2";
+  protected String getIssuesUrl(MantisConfiguration configuration, BigInteger projectId) {
+    return configuration.getServerUrl() + "/search.php?project_id=" + projectId + "&sticky_issues=on&sortby=property&dir=DESC&hide_status_id=-2";
+  }
+
+  protected void saveMeasures(SensorContext context, String url, Measure issuesMeasure) {
+    Object event = MantisEvents.MEASURE_SAVE.begin();
     issuesMeasure.setUrl(url);
     context.saveMeasure(issuesMeasure);
+    if (event != null) {
+      MantisEvents.MEASURE_SAVE.commit(event, issuesMeasure.getMetricKey());
+    }
   }
 
   public boolean shouldExecuteOnProject(Project project) {
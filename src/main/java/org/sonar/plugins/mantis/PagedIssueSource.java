@@ -0,0 +1,304 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.futureware.mantis.rpc.soap.client.FilterData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+
+/**
+ * Reads the issues of a project page by page, dropping the issues seen twice and reading again the pages
+ * affected by issues updated during the fetch. Implementations only need to fetch a single page.
+ *
+ * @since 0.5
+ */
+public abstract class PagedIssueSource implements IssueSource {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PagedIssueSource.class);
+
+  public static final int DEFAULT_PAGE_SIZE = 50;
+
+  private int pageSize = DEFAULT_PAGE_SIZE;
+  private int duplicatesRemoved;
+  private HedgingPolicy hedging;
+  private FetchJournal journal;
+
+  /**
+   * @param filter the filter to apply, null for every issue of the project
+   * @param page index of the page, starting at 1
+   */
+  protected abstract IssueData[] getIssuesPage(FilterData filter, int page, int count) throws RemoteException;
+
+  public IssueData[] getIssues(FilterData filter) throws RemoteException {
+    LOG.debug("Get issues for {} : {}", getProjectId(), filter != null ? filter.getName() : "<all>");
+    IssuePageCollector collector = new IssuePageCollector();
+    IssueData[] previous = null;
+    IssueData[] last = null;
+    boolean overlap = false;
+    int page = 1;
+    if (journal != null) {
+      for (IssueData[] done : journal.resume(pageSize)) {
+        collector.addPage(done);
+        previous = done.length == pageSize ? done : null;
+        last = done;
+        page++;
+      }
+      if (page > 1) {
+        LOG.info("Resuming the fetch at page {} with {} issues from the journal", page, collector.size());
+      }
+    }
+    boolean complete = false;
+    try {
+      while (true) {
+        IssueData[] result;
+        try {
+          LOG.debug("Get issues from index {} to {}", ((page - 1) * pageSize), (page * pageSize) - 1);
+          result = getHedgedPage(filter, page);
+        } catch (Exception ex) {
+          LOG.warn("Get issues", ex);
+          if (recoverPage(filter, page++, collector) < pageSize) {
+            break;
+          }
+          previous = null;
+          last = null;
+          continue;
+        }
+        if (result == null || result.length == 0) {
+          break;
+        }
+        if (sameIssues(result, last) && isPastEnd(filter, page, result)) {
+          // Mantis answers the last page again when asked past the end (SONARPLUGINS-1163)
+          break;
+        }
+        last = result;
+        int added = collector.addPage(result);
+        if (journal != null) {
+          journal.append(page, result);
+        }
+        if (added < result.length) {
+          LOG.debug("Page {} overlaps previous pages by {} issues", page, result.length - added);
+          overlap = true;
+        } else if (previous != null) {
+          overlap |= probeBoundary(filter, page, previous, collector);
+        }
+        if (result.length != pageSize) {
+          break;
+        }
+        previous = result;
+        page++;
+      }
+      duplicatesRemoved = collector.getDuplicatesRemoved();
+      if (overlap) {
+        reprobeHead(filter, page, collector);
+      }
+      complete = true;
+    } finally {
+      if (journal != null) {
+        if (complete) {
+          journal.complete();
+        } else {
+          journal.close();
+        }
+      }
+    }
+    if (duplicatesRemoved > 0) {
+      LOG.info("{} duplicated issues removed while paging, issues were modified during the fetch", duplicatesRemoved);
+    }
+    return collector.toArray();
+  }
+
+  /**
+   * A page made only of issues already read is not the end of the list: issues updated during the fetch move
+   * towards the head and push the ones already read to the current offset. Only the very same page can mean
+   * that the end was passed.
+   */
+  private static boolean sameIssues(IssueData[] page, IssueData[] last) {
+    if (last == null || page.length != last.length) {
+      return false;
+    }
+    for (int i = 0; i < page.length; i++) {
+      if (!page[i].getId().equals(last[i].getId())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The previous page answered again is either the last page repeated past the end, or the same issues pushed
+   * to the current offset by as many issues reported meanwhile. The first index of the page tells them apart:
+   * past the end, Mantis answers the last issue.
+   */
+  private boolean isPastEnd(FilterData filter, int page, IssueData[] result) {
+    if (result.length < 2) {
+      return true;
+    }
+    try {
+      IssueData[] probe = getIssuesPage(filter, (page - 1) * pageSize + 1, 1);
+      return probe.length == 0 || !probe[0].getId().equals(result[0].getId());
+    } catch (Exception ex) {
+      LOG.warn("Unable to check whether page " + page + " is past the end", ex);
+      return true;
+    }
+  }
+
+  private IssueData[] getHedgedPage(final FilterData filter, final int page) throws RemoteException {
+    if (hedging == null) {
+      return getIssuesPage(filter, page, pageSize);
+    }
+    return hedging.call(new Callable<IssueData[]>() {
+      public IssueData[] call() throws RemoteException {
+        return getIssuesPage(filter, page, pageSize);
+      }
+    });
+  }
+
+  /**
+   * Checks that the last issue of the previous page is still at the same index. If an issue that was never read
+   * took its place, issues were removed from the pages already read and the ones that slipped between the two
+   * pages are read again.
+   *
+   * @return true if issues were inserted before the boundary
+   */
+  private boolean probeBoundary(FilterData filter, int page, IssueData[] previous, IssuePageCollector collector) {
+    IssueData last = previous[previous.length - 1];
+    try {
+      IssueData[] probe = getIssuesPage(filter, (page - 1) * pageSize, 1);
+      if (probe.length == 0 || last.getId().equals(probe[0].getId())) {
+        return false;
+      }
+      if (collector.contains(probe[0])) {
+        return true;
+      }
+      LOG.debug("Gap detected before page {}, reading page {} again", page, page - 1);
+      int recovered = collector.merge(getIssuesPage(filter, page - 1, pageSize));
+      LOG.debug("{} skipped issues recovered", recovered);
+      return false;
+    } catch (Exception ex) {
+      LOG.warn("Unable to probe page boundary before page " + page, ex);
+      return false;
+    }
+  }
+
+  /**
+   * Issues inserted while paging push the following ones towards later pages. Mantis lists the most recently
+   * updated issues first, so the missed ones are read again from the head until a page brings nothing new.
+   */
+  private void reprobeHead(FilterData filter, int lastPage, IssuePageCollector collector) {
+    for (int page = 1; page <= lastPage; page++) {
+      try {
+        IssueData[] result = getIssuesPage(filter, page, pageSize);
+        int added = collector.merge(result);
+        LOG.debug("Head page {} probed again, {} new issues", page, added);
+        if (added == 0 || result.length != pageSize) {
+          return;
+        }
+      } catch (Exception ex) {
+        LOG.warn("Unable to probe head page " + page, ex);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Reads a page that failed issue by issue.
+   *
+   * @return the number of indexes answered by Mantis
+   * @throws RemoteException if every issue of the page failed, Mantis being most likely unreachable
+   */
+  private int recoverPage(FilterData filter, int page, IssuePageCollector collector) throws RemoteException {
+    Object event = MantisEvents.PAGE_RECOVERY.begin();
+    int answered = 0;
+    int read = 0;
+    List<IssueData> recovered = new ArrayList<IssueData>();
+    Exception failure = null;
+    for (int i = ((page - 1) * pageSize); i < (page * pageSize); i++) {
+      LOG.info("Trying to get issue at index {}", i);
+      try {
+        IssueData[] data = getIssuesPage(filter, i + 1, 1);
+        if (data.length != 1) {
+          break;
+        }
+        answered++;
+        read++;
+        if (collector.addPage(data) == 1) {
+          recovered.add(data[0]);
+          LOG.info("Issue {} recovered.", data[0].getId());
+        }
+      } catch (Exception ex) {
+        answered++;
+        failure = ex;
+        LOG.warn("Get issue at index " + i, ex);
+      }
+    }
+    if (event != null) {
+      MantisEvents.PAGE_RECOVERY.commit(event, page, answered, recovered.size());
+    }
+    if (read == 0 && answered == pageSize) {
+      throw new RemoteException("Unable to read any issue of page " + page + ", giving up", failure);
+    }
+    if (journal != null) {
+      journal.append(page, recovered.toArray(new IssueData[recovered.size()]));
+    }
+    return answered;
+  }
+
+  /**
+   * @param pageSize number of issues requested per page
+   */
+  public void setPageSize(int pageSize) {
+    this.pageSize = pageSize;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * @param hedging hedges the slow page requests of the next fetches, null to never hedge. The implementation
+   *          must then accept concurrent page requests.
+   */
+  public void setHedgingPolicy(HedgingPolicy hedging) {
+    this.hedging = hedging;
+  }
+
+  /**
+   * @param journal journal of the pages of the next fetch, resumed if a previous fetch failed; null for none
+   */
+  public void setJournal(FetchJournal journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * @return the number of duplicated issues dropped by the last call to {@link #getIssues(FilterData)}
+   */
+  public int getDuplicatesRemoved() {
+    return duplicatesRemoved;
+  }
+
+}
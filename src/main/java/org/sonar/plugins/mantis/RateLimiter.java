@@ -0,0 +1,65 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the rate and the concurrency of the requests sent to a Mantis server. Limiters are shared by every
+ * analysis of the JVM that targets the same server with the same settings.
+ *
+ * @since 0.5
+ */
+public abstract class RateLimiter {
+
+  private static final Map<String, RateLimiter> LIMITERS = new ConcurrentHashMap<String, RateLimiter>();
+
+  /**
+   * Blocks until a request can be sent.
+   *
+   * @return the permit to give back to {@link #release(int)} once the response is received
+   */
+  public abstract int acquire() throws InterruptedException;
+
+  public abstract void release(int permit);
+
+  /**
+   * @param requestsPerSecond maximum request rate, zero or less for no limit
+   * @param concurrency maximum number of requests in flight, zero or less for no limit
+   * @param lockFile file used to share the limits with the other JVMs of the host, null to limit this JVM only
+   */
+  public static synchronized RateLimiter get(String server, double requestsPerSecond, int concurrency, File lockFile) throws IOException {
+    String key = server + '|' + requestsPerSecond + '|' + concurrency + '|' + (lockFile == null ? "" : lockFile.getCanonicalPath());
+    RateLimiter limiter = LIMITERS.get(key);
+    if (limiter == null) {
+      if (lockFile == null) {
+        limiter = new TokenBucketRateLimiter(requestsPerSecond, concurrency);
+      } else {
+        limiter = SharedFileRateLimiter.get(lockFile.getCanonicalFile(), requestsPerSecond, concurrency);
+      }
+      LIMITERS.put(key, limiter);
+    }
+    return limiter;
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Token bucket and concurrency slots kept in a memory-mapped file, so that every JVM of the host that points at
+ * the same file shares the same limits. Each access to the shared state holds an exclusive lock on the file.
+ * <p>
+ * A slot is leased with an expiry date: the slots of a JVM that died while a request was in flight are
+ * recovered once the lease expires.
+ *
+ * @since 0.5
+ */
+public class SharedFileRateLimiter extends RateLimiter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SharedFileRateLimiter.class);
+
+  static final int MAX_SLOTS = 64;
+  static final long LEASE_MILLIS = 5 * 60 * 1000L;
+
+  private static final int TOKENS_OFFSET = 0;
+  private static final int LAST_REFILL_OFFSET = 8;
+  private static final int SLOTS_OFFSET = 16;
+  private static final int SIZE = SLOTS_OFFSET + MAX_SLOTS * 8;
+  private static final long RETRY_MILLIS = 20;
+
+  private static final Map<File, SharedFileRateLimiter.Region> REGIONS = new HashMap<File, SharedFileRateLimiter.Region>();
+
+  private final Region region;
+  private final double requestsPerSecond;
+  private final double capacity;
+  private final int concurrency;
+
+  SharedFileRateLimiter(Region region, double requestsPerSecond, int concurrency) {
+    this.region = region;
+    this.requestsPerSecond = requestsPerSecond;
+    this.capacity = Math.max(1.0, requestsPerSecond);
+    if (concurrency > MAX_SLOTS) {
+      LOG.warn("At most {} concurrent requests can be shared across the host, {} requested", MAX_SLOTS, concurrency);
+    }
+    this.concurrency = Math.min(concurrency, MAX_SLOTS);
+  }
+
+  static SharedFileRateLimiter get(File file, double requestsPerSecond, int concurrency) throws IOException {
+    synchronized (REGIONS) {
+      Region region = REGIONS.get(file);
+      if (region == null) {
+        region = new Region(file);
+        REGIONS.put(file, region);
+      }
+      return new SharedFileRateLimiter(region, requestsPerSecond, concurrency);
+    }
+  }
+
+  @Override
+  public int acquire() throws InterruptedException {
+    while (true) {
+      long wait;
+      synchronized (region) {
+        FileLock lock = region.lock();
+        try {
+          long now = System.currentTimeMillis();
+          MappedByteBuffer buffer = region.buffer;
+          double tokens = refill(buffer, now);
+          int slot = concurrency > 0 ? freeSlot(buffer, now) : -1;
+          boolean hasToken = requestsPerSecond <= 0 || tokens >= 1.0;
+          if (hasToken && (concurrency <= 0 || slot >= 0)) {
+            if (requestsPerSecond > 0) {
+              buffer.putDouble(TOKENS_OFFSET, tokens - 1.0);
+            }
+            if (slot >= 0) {
+              buffer.putLong(SLOTS_OFFSET + slot * 8, now + LEASE_MILLIS);
+            }
+            return slot;
+          }
+          wait = hasToken ? RETRY_MILLIS : Math.max(1L, (long) Math.ceil((1.0 - tokens) * 1000 / requestsPerSecond));
+        } finally {
+          region.unlock(lock);
+        }
+      }
+      Thread.sleep(wait);
+    }
+  }
+
+  @Override
+  public void release(int permit) {
+    if (permit < 0) {
+      return;
+    }
+    synchronized (region) {
+      FileLock lock = region.lock();
+      try {
+        region.buffer.putLong(SLOTS_OFFSET + permit * 8, 0L);
+      } finally {
+        region.unlock(lock);
+      }
+    }
+  }
+
+  private double refill(MappedByteBuffer buffer, long now) {
+    if (requestsPerSecond <= 0) {
+      return 0;
+    }
+    long lastRefill = buffer.getLong(LAST_REFILL_OFFSET);
+    double tokens = lastRefill == 0L ? capacity : buffer.getDouble(TOKENS_OFFSET);
+    if (now > lastRefill) {
+      tokens = Math.min(capacity, tokens + (now - lastRefill) * requestsPerSecond / 1000);
+      buffer.putLong(LAST_REFILL_OFFSET, now);
+    }
+    buffer.putDouble(TOKENS_OFFSET, tokens);
+    return tokens;
+  }
+
+  private int freeSlot(MappedByteBuffer buffer, long now) {
+    for (int i = 0; i < concurrency; i++) {
+      if (buffer.getLong(SLOTS_OFFSET + i * 8) < now) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  static final class Region {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    Region(File file) throws IOException {
+      File parent = file.getParentFile();
+      if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Unable to create directory " + parent);
+      }
+      channel = new RandomAccessFile(file, "rw").getChannel();
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+    }
+
+    FileLock lock() {
+      try {
+        return channel.lock();
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to lock the Mantis rate limiter file", e);
+      }
+    }
+
+    void unlock(FileLock lock) {
+      try {
+        lock.release();
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to unlock the Mantis rate limiter file", e);
+      }
+    }
+  }
+}
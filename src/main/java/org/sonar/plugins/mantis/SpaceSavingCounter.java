@@ -0,0 +1,160 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving counter of the most frequent values of a stream, in bounded memory.
+ * <p>
+ * At most <code>capacity</code> values are monitored, in a min-heap ordered by count. An unmonitored value
+ * replaces the least frequent one and inherits its count, which bounds the over-estimation of its own count.
+ * Counts are exact as long as the stream holds no more than <code>capacity</code> distinct values.
+ *
+ * @since 0.5
+ */
+public class SpaceSavingCounter {
+
+  private final String[] values;
+  private final long[] counts;
+  private final long[] errors;
+  private final Map<String, Integer> positions;
+  private int size;
+  private long total;
+
+  public SpaceSavingCounter(int capacity) {
+    values = new String[capacity];
+    counts = new long[capacity];
+    errors = new long[capacity];
+    positions = new HashMap<String, Integer>(capacity * 2);
+  }
+
+  public void add(String value) {
+    total++;
+    Integer position = positions.get(value);
+    if (position != null) {
+      counts[position]++;
+      siftDown(position);
+    } else if (size < values.length) {
+      values[size] = value;
+      counts[size] = 1;
+      errors[size] = 0;
+      positions.put(value, size);
+      siftUp(size++);
+    } else {
+      positions.remove(values[0]);
+      errors[0] = counts[0];
+      counts[0]++;
+      values[0] = value;
+      positions.put(value, 0);
+      siftDown(0);
+    }
+  }
+
+  public long getTotal() {
+    return total;
+  }
+
+  /**
+   * @return the estimated count of the value, zero if it is not monitored
+   */
+  public long getCount(String value) {
+    Integer position = positions.get(value);
+    return position != null ? counts[position] : 0;
+  }
+
+  /**
+   * @return the maximum over-estimation of the count of the value
+   */
+  public long getError(String value) {
+    Integer position = positions.get(value);
+    return position != null ? errors[position] : 0;
+  }
+
+  /**
+   * @return the <code>n</code> most frequent values, by decreasing count
+   */
+  public List<String> top(int n) {
+    List<String> top = new ArrayList<String>(size);
+    for (int i = 0; i < size; i++) {
+      top.add(values[i]);
+    }
+    Collections.sort(top, new Comparator<String>() {
+      public int compare(String o1, String o2) {
+        long c1 = getCount(o1);
+        long c2 = getCount(o2);
+        return c1 > c2 ? -1 : (c1 < c2 ? 1 : o1.compareTo(o2));
+      }
+    });
+    return top.size() > n ? top.subList(0, n) : top;
+  }
+
+  private void siftUp(int index) {
+    int i = index;
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (counts[parent] <= counts[i]) {
+        break;
+      }
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int index) {
+    int i = index;
+    while (true) {
+      int smallest = i;
+      int left = 2 * i + 1;
+      int right = left + 1;
+      if (left < size && counts[left] < counts[smallest]) {
+        smallest = left;
+      }
+      if (right < size && counts[right] < counts[smallest]) {
+        smallest = right;
+      }
+      if (smallest == i) {
+        return;
+      }
+      swap(i, smallest);
+      i = smallest;
+    }
+  }
+
+  private void swap(int i, int j) {
+    String value = values[i];
+    values[i] = values[j];
+    values[j] = value;
+    long count = counts[i];
+    counts[i] = counts[j];
+    counts[j] = count;
+    long error = errors[i];
+    errors[i] = errors[j];
+    errors[j] = error;
+    positions.put(values[i], i);
+    positions.put(values[j], j);
+  }
+}
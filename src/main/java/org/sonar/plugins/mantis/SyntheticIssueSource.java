@@ -0,0 +1,166 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.math.BigInteger;
+import java.rmi.RemoteException;
+import java.util.Calendar;
+
+import biz.futureware.mantis.rpc.soap.client.AccountData;
+import biz.futureware.mantis.rpc.soap.client.FilterData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+import biz.futureware.mantis.rpc.soap.client.ObjectRef;
+
+/**
+ * Backlog generated on demand, paged the way Mantis does: page numbers past the end answer the last page. Used
+ * by {@link MantisBenchmark} to measure the paging and the analysis without a Mantis server.
+ *
+ * @since 0.5
+ */
+public class SyntheticIssueSource extends PagedIssueSource {
+
+  private static final String[] STATUS = {"new", "feedback", "acknowledged", "confirmed", "assigned", "resolved", "closed"};
+  private static final int[] STATUS_IDS = {10, 20, 30, 40, 50, 80, 90};
+  private static final String[] PRIORITIES = {"low", "normal", "high", "urgent", "immediate"};
+  private static final int USERS = 200;
+  private static final int DAYS = 400;
+
+  private final int total;
+  private final long latencyMillis;
+  private final RateLimiter limiter;
+  private final ObjectRef[] status = new ObjectRef[STATUS.length];
+  private final ObjectRef[] priorities = new ObjectRef[PRIORITIES.length];
+  private final AccountData[] users = new AccountData[USERS];
+  private final Calendar[] dates = new Calendar[DAYS];
+
+  /**
+   * @param total number of issues of the backlog
+   * @param latencyMillis time taken by each request
+   * @param limiter limits the requests like a remote backend would, null for no limit
+   */
+  public SyntheticIssueSource(int total, long latencyMillis, RateLimiter limiter) {
+    this.total = total;
+    this.latencyMillis = latencyMillis;
+    this.limiter = limiter;
+    for (int i = 0; i < status.length; i++) {
+      status[i] = new ObjectRef(BigInteger.valueOf(STATUS_IDS[i]), STATUS[i]);
+    }
+    for (int i = 0; i < priorities.length; i++) {
+      priorities[i] = new ObjectRef(BigInteger.valueOf((i + 2) * 10), PRIORITIES[i]);
+    }
+    for (int i = 0; i < users.length; i++) {
+      users[i] = new AccountData(BigInteger.valueOf(i + 1), "user" + i, "User " + i, "user" + i + "@example.com");
+    }
+    for (int i = 0; i < dates.length; i++) {
+      dates[i] = Calendar.getInstance();
+      dates[i].add(Calendar.DAY_OF_YEAR, -i);
+    }
+  }
+
+  public void connect(String login, String password, String project) {
+    // nothing to connect to
+  }
+
+  public BigInteger getProjectId() {
+    return BigInteger.ONE;
+  }
+
+  public FilterData[] getFilters() {
+    return new FilterData[0];
+  }
+
+  @Override
+  protected IssueData[] getIssuesPage(FilterData filter, int page, int count) throws RemoteException {
+    int permit = acquire();
+    try {
+      pause();
+      int pageCount = Math.max(1, (total + count - 1) / count);
+      int from = (Math.min(page, pageCount) - 1) * count;
+      int to = Math.min(from + count, total);
+      IssueData[] issues = new IssueData[Math.max(0, to - from)];
+      for (int i = from; i < to; i++) {
+        issues[i - from] = create(total - i);
+      }
+      return issues;
+    } finally {
+      release(permit);
+    }
+  }
+
+  public IssueData getIssue(BigInteger id) throws RemoteException {
+    int permit = acquire();
+    try {
+      pause();
+      long value = id.longValue();
+      return value >= 1 && value <= total ? create((int) value) : null;
+    } finally {
+      release(permit);
+    }
+  }
+
+  public void disconnect() {
+    // nothing to disconnect from
+  }
+
+  private IssueData create(int id) {
+    IssueData issue = new IssueData();
+    issue.setId(BigInteger.valueOf(id));
+    issue.setSummary("Issue " + id);
+    issue.setStatus(status[id % status.length]);
+    issue.setPriority(priorities[id % priorities.length]);
+    AccountData user = users[id % users.length];
+    issue.setReporter(users[(id / 3) % users.length]);
+    issue.setHandler(id % 11 == 0 ? null : user);
+    issue.setDate_submitted(dates[id % dates.length]);
+    issue.setLast_updated(dates[(id / 7) % dates.length]);
+    return issue;
+  }
+
+  private int acquire() throws RemoteException {
+    if (limiter == null) {
+      return -1;
+    }
+    try {
+      return limiter.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Interrupted while waiting to call the synthetic backend");
+    }
+  }
+
+  private void pause() throws RemoteException {
+    if (latencyMillis <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(latencyMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Interrupted while calling the synthetic backend");
+    }
+  }
+
+  private void release(int permit) {
+    if (limiter != null) {
+      limiter.release(permit);
+    }
+  }
+}
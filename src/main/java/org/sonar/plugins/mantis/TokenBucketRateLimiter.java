@@ -0,0 +1,90 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Token bucket limiting the requests sent from this JVM. The bucket holds up to one second of requests so that
+ * short bursts are allowed while the average rate stays under the limit.
+ *
+ * @since 0.5
+ */
+public class TokenBucketRateLimiter extends RateLimiter {
+
+  private final double requestsPerSecond;
+  private final double capacity;
+  private final Semaphore inFlight;
+
+  private double tokens;
+  private long lastRefill;
+
+  public TokenBucketRateLimiter(double requestsPerSecond, int concurrency) {
+    this.requestsPerSecond = requestsPerSecond;
+    this.capacity = Math.max(1.0, requestsPerSecond);
+    this.inFlight = concurrency > 0 ? new Semaphore(concurrency, true) : null;
+    this.tokens = capacity;
+    this.lastRefill = System.nanoTime();
+  }
+
+  @Override
+  public int acquire() throws InterruptedException {
+    if (inFlight != null) {
+      inFlight.acquire();
+    }
+    try {
+      long wait;
+      while ((wait = reserve()) > 0) {
+        Thread.sleep(wait);
+      }
+    } catch (InterruptedException e) {
+      if (inFlight != null) {
+        inFlight.release();
+      }
+      throw e;
+    }
+    return 0;
+  }
+
+  @Override
+  public void release(int permit) {
+    if (inFlight != null) {
+      inFlight.release();
+    }
+  }
+
+  /**
+   * @return zero if a token was taken, otherwise the number of milliseconds to wait for the next one
+   */
+  private synchronized long reserve() {
+    if (requestsPerSecond <= 0) {
+      return 0;
+    }
+    long now = System.nanoTime();
+    tokens = Math.min(capacity, tokens + (now - lastRefill) * requestsPerSecond / 1e9);
+    lastRefill = now;
+    if (tokens >= 1.0) {
+      tokens -= 1.0;
+      return 0;
+    }
+    return Math.max(1L, (long) Math.ceil((1.0 - tokens) * 1000 / requestsPerSecond));
+  }
+}
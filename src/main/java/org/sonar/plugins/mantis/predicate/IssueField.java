@@ -0,0 +1,244 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis.predicate;
+
+import java.math.BigInteger;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import biz.futureware.mantis.rpc.soap.client.AccountData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+import biz.futureware.mantis.rpc.soap.client.ObjectRef;
+
+/**
+ * Fields of a Mantis issue that predicates can test. A field has a name, and a number when Mantis gives one:
+ * the id of the value, or a number of days for {@link #AGE} and {@link #IDLE}. The fields that Mantis orders,
+ * like the priority, also know the ids of the default Mantis values, so that {@code priority >= high} works
+ * without knowing them.
+ *
+ * @since 0.5
+ */
+public enum IssueField {
+
+  ID {
+    @Override
+    String getName(IssueData issue) {
+      return issue.getId() != null ? issue.getId().toString() : null;
+    }
+
+    @Override
+    long getNumber(IssueData issue, Date date) {
+      return toNumber(issue.getId());
+    }
+  },
+  PROJECT {
+    @Override
+    ObjectRef getRef(IssueData issue) {
+      return issue.getProject();
+    }
+  },
+  CATEGORY {
+    @Override
+    String getName(IssueData issue) {
+      return issue.getCategory();
+    }
+  },
+  STATUS("new", 10, "feedback", 20, "acknowledged", 30, "confirmed", 40, "assigned", 50, "resolved", 80, "closed", 90) {
+    @Override
+    ObjectRef getRef(IssueData issue) {
+      return issue.getStatus();
+    }
+  },
+  PRIORITY("none", 10, "low", 20, "normal", 30, "high", 40, "urgent", 50, "immediate", 60) {
+    @Override
+    ObjectRef getRef(IssueData issue) {
+      return issue.getPriority();
+    }
+  },
+  SEVERITY("feature", 10, "trivial", 20, "text", 30, "tweak", 40, "minor", 50, "major", 60, "crash", 70, "block", 80) {
+    @Override
+    ObjectRef getRef(IssueData issue) {
+      return issue.getSeverity();
+    }
+  },
+  RESOLUTION("open", 10, "fixed", 20, "reopened", 30, "unable to reproduce", 40, "not fixable", 50, "duplicate", 60,
+      "no change required", 70, "suspended", 80, "won't fix", 90) {
+    @Override
+    ObjectRef getRef(IssueData issue) {
+      return issue.getResolution();
+    }
+  },
+  REPRODUCIBILITY("always", 10, "sometimes", 30, "random", 50, "have not tried", 70, "unable to reproduce", 90, "N/A", 100) {
+    @Override
+    ObjectRef getRef(IssueData issue) {
+      return issue.getReproducibility();
+    }
+  },
+  REPORTER {
+    @Override
+    AccountData getAccount(IssueData issue) {
+      return issue.getReporter();
+    }
+  },
+  HANDLER {
+    @Override
+    AccountData getAccount(IssueData issue) {
+      return issue.getHandler();
+    }
+  },
+  VERSION {
+    @Override
+    String getName(IssueData issue) {
+      return issue.getVersion();
+    }
+  },
+  TARGET_VERSION {
+    @Override
+    String getName(IssueData issue) {
+      return issue.getTarget_version();
+    }
+  },
+  FIXED_IN_VERSION {
+    @Override
+    String getName(IssueData issue) {
+      return issue.getFixed_in_version();
+    }
+  },
+  SUMMARY {
+    @Override
+    String getName(IssueData issue) {
+      return issue.getSummary();
+    }
+  },
+  /**
+   * Days since the issue was submitted.
+   */
+  AGE {
+    @Override
+    String getName(IssueData issue) {
+      return null;
+    }
+
+    @Override
+    long getNumber(IssueData issue, Date date) {
+      return daysSince(issue.getDate_submitted(), date);
+    }
+  },
+  /**
+   * Days since the last update of the issue.
+   */
+  IDLE {
+    @Override
+    String getName(IssueData issue) {
+      return null;
+    }
+
+    @Override
+    long getNumber(IssueData issue, Date date) {
+      return daysSince(issue.getLast_updated(), date);
+    }
+  };
+
+  /**
+   * Number of a field without value.
+   */
+  static final long NONE = Long.MIN_VALUE;
+
+  private static final long DAY = 24 * 3600 * 1000L;
+
+  private final Map<String, Long> defaultValues = new HashMap<String, Long>();
+
+  IssueField(Object... defaults) {
+    for (int i = 0; i < defaults.length; i += 2) {
+      defaultValues.put(((String) defaults[i]).toLowerCase(Locale.ENGLISH), Long.valueOf((Integer) defaults[i + 1]));
+    }
+  }
+
+  /**
+   * @return true if the values of the field can be compared with {@code <} or {@code >}
+   */
+  boolean isOrdered() {
+    return this == ID || this == AGE || this == IDLE || !defaultValues.isEmpty();
+  }
+
+  ObjectRef getRef(IssueData issue) {
+    return null;
+  }
+
+  AccountData getAccount(IssueData issue) {
+    return null;
+  }
+
+  /**
+   * @return the name of the value, null if the issue has no value
+   */
+  String getName(IssueData issue) {
+    ObjectRef ref = getRef(issue);
+    if (ref != null) {
+      return ref.getName();
+    }
+    AccountData account = getAccount(issue);
+    return account != null ? account.getName() : null;
+  }
+
+  /**
+   * @return the number of the value at the given date, {@link #NONE} if the issue has no value or the field has no number
+   */
+  long getNumber(IssueData issue, Date date) {
+    ObjectRef ref = getRef(issue);
+    if (ref != null) {
+      return toNumber(ref.getId());
+    }
+    AccountData account = getAccount(issue);
+    return account != null ? toNumber(account.getId()) : NONE;
+  }
+
+  /**
+   * @return the number of a default Mantis value of the field, like 40 for the "high" priority, {@link #NONE} if unknown
+   */
+  long getDefaultNumber(String name) {
+    Long number = defaultValues.get(name.toLowerCase(Locale.ENGLISH));
+    return number != null ? number : NONE;
+  }
+
+  private static long toNumber(BigInteger id) {
+    return id != null ? id.longValue() : NONE;
+  }
+
+  private static long daysSince(Calendar from, Date to) {
+    return from != null ? (to.getTime() - from.getTimeInMillis()) / DAY : NONE;
+  }
+
+  /**
+   * @return the field of the name used in predicates, like "status" or "target_version", null if unknown
+   */
+  public static IssueField fromName(String name) {
+    for (IssueField field : values()) {
+      if (field.name().equalsIgnoreCase(name)) {
+        return field;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis.predicate;
+
+import java.util.Date;
+
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+
+/**
+ * Condition on a Mantis issue, compiled once by {@link PredicateParser} and evaluated on every fetched issue.
+ *
+ * @since 0.5
+ */
+public interface IssuePredicate {
+
+  /**
+   * @param date date of the analysis, from which the ages of the issues are computed
+   */
+  boolean matches(IssueData issue, Date date);
+
+}
@@ -0,0 +1,307 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis.predicate;
+
+import java.util.Date;
+
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+
+/**
+ * Compiles the expression of a view into an {@link IssuePredicate}:
+ *
+ * <pre>
+ * expression := and ( "||" and )*
+ * and        := unary ( "&amp;&amp;" unary )*
+ * unary      := "!" unary | "(" expression ")" | field operator value
+ * operator   := "==" | "!=" | "&lt;" | "&lt;=" | "&gt;" | "&gt;="
+ * value      := number | word | 'quoted text' | "quoted text"
+ * </pre>
+ *
+ * With {@code ==} and {@code !=}, a number is compared with the id of the field when it has one, for instance
+ * {@code priority == 40}, anything else with its name, ignoring case, for instance {@code status != resolved}.
+ * An empty value matches the issues without value, for instance {@code handler == ''}.
+ * <p>
+ * The other operators compare numbers, on the ordered fields only: the ids of the status, priority, severity,
+ * resolution and reproducibility, the issue id, and {@code age} and {@code idle}, the days elapsed since the
+ * issue was submitted and last updated. The default Mantis names can be used instead of ids, for instance
+ * {@code priority >= high && status == new && age > 3}.
+ * <p>
+ * Names and values are resolved when parsing, so an expression is parsed once and evaluated cheaply on each
+ * issue.
+ *
+ * @since 0.5
+ */
+public final class PredicateParser {
+
+  private final String expression;
+  private int position;
+
+  private PredicateParser(String expression) {
+    this.expression = expression;
+  }
+
+  /**
+   * @throws IllegalArgumentException if the expression is not valid
+   */
+  public static IssuePredicate parse(String expression) {
+    PredicateParser parser = new PredicateParser(expression);
+    IssuePredicate predicate = parser.parseOr();
+    parser.skipSpaces();
+    if (parser.position < expression.length()) {
+      throw parser.error("unexpected '" + expression.charAt(parser.position) + "'");
+    }
+    return predicate;
+  }
+
+  private IssuePredicate parseOr() {
+    IssuePredicate left = parseAnd();
+    while (accept("||")) {
+      left = new Or(left, parseAnd());
+    }
+    return left;
+  }
+
+  private IssuePredicate parseAnd() {
+    IssuePredicate left = parseUnary();
+    while (accept("&&")) {
+      left = new And(left, parseUnary());
+    }
+    return left;
+  }
+
+  private IssuePredicate parseUnary() {
+    if (accept("!=")) {
+      throw error("missing field before '!='");
+    }
+    if (accept("!")) {
+      return new Not(parseUnary());
+    }
+    if (accept("(")) {
+      IssuePredicate predicate = parseOr();
+      if (!accept(")")) {
+        throw error("missing ')'");
+      }
+      return predicate;
+    }
+    return parseComparison();
+  }
+
+  private IssuePredicate parseComparison() {
+    int start = position;
+    String name = readWord();
+    IssueField field = IssueField.fromName(name);
+    if (field == null) {
+      position = start;
+      throw error(name.length() == 0 ? "missing field" : "unknown field '" + name + "'");
+    }
+    if (accept("==")) {
+      return new Equals(field, readValue());
+    }
+    if (accept("!=")) {
+      return new Not(new Equals(field, readValue()));
+    }
+    int operator;
+    if (accept("<=")) {
+      operator = Compare.LOWER_OR_EQUAL;
+    } else if (accept("<")) {
+      operator = Compare.LOWER;
+    } else if (accept(">=")) {
+      operator = Compare.GREATER_OR_EQUAL;
+    } else if (accept(">")) {
+      operator = Compare.GREATER;
+    } else {
+      throw error("expected '==', '!=', '<', '<=', '>' or '>='");
+    }
+    if (!field.isOrdered()) {
+      throw error("'" + name + "' cannot be compared with '<' or '>'");
+    }
+    int valueStart = position;
+    String value = readValue();
+    long number = isNumber(value) ? Long.parseLong(value) : field.getDefaultNumber(value);
+    if (number == IssueField.NONE) {
+      position = valueStart;
+      throw error("unknown " + name + " '" + value + "'");
+    }
+    return new Compare(field, operator, number);
+  }
+
+  private String readValue() {
+    skipSpaces();
+    if (position < expression.length()) {
+      char quote = expression.charAt(position);
+      if (quote == '\'' || quote == '"') {
+        int end = expression.indexOf(quote, position + 1);
+        if (end < 0) {
+          throw error("unterminated text");
+        }
+        String value = expression.substring(position + 1, end);
+        position = end + 1;
+        return value;
+      }
+    }
+    String value = readWord();
+    if (value.length() == 0) {
+      throw error("missing value");
+    }
+    return value;
+  }
+
+  private String readWord() {
+    skipSpaces();
+    int start = position;
+    while (position < expression.length()) {
+      char c = expression.charAt(position);
+      if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+        break;
+      }
+      position++;
+    }
+    return expression.substring(start, position);
+  }
+
+  private boolean accept(String token) {
+    skipSpaces();
+    if (expression.startsWith(token, position)) {
+      position += token.length();
+      return true;
+    }
+    return false;
+  }
+
+  private void skipSpaces() {
+    while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+      position++;
+    }
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException("Invalid expression \"" + expression + "\" at " + position + ": " + message);
+  }
+
+  private static boolean isNumber(String value) {
+    if (value.length() == 0 || value.length() > 18) {
+      return false;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      if (!Character.isDigit(value.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static final class Equals implements IssuePredicate {
+    private final IssueField field;
+    private final String name;
+    private final long number;
+
+    Equals(IssueField field, String value) {
+      this.field = field;
+      this.name = value;
+      this.number = isNumber(value) ? Long.parseLong(value) : IssueField.NONE;
+    }
+
+    public boolean matches(IssueData issue, Date date) {
+      if (number != IssueField.NONE) {
+        long actual = field.getNumber(issue, date);
+        if (actual != IssueField.NONE) {
+          return number == actual;
+        }
+      }
+      String actual = field.getName(issue);
+      return actual == null ? name.length() == 0 : name.equalsIgnoreCase(actual);
+    }
+  }
+
+  private static final class Compare implements IssuePredicate {
+    static final int LOWER = 0;
+    static final int LOWER_OR_EQUAL = 1;
+    static final int GREATER = 2;
+    static final int GREATER_OR_EQUAL = 3;
+
+    private final IssueField field;
+    private final int operator;
+    private final long number;
+
+    Compare(IssueField field, int operator, long number) {
+      this.field = field;
+      this.operator = operator;
+      this.number = number;
+    }
+
+    public boolean matches(IssueData issue, Date date) {
+      long actual = field.getNumber(issue, date);
+      if (actual == IssueField.NONE) {
+        return false;
+      }
+      switch (operator) {
+        case LOWER:
+          return actual < number;
+        case LOWER_OR_EQUAL:
+          return actual <= number;
+        case GREATER:
+          return actual > number;
+        default:
+          return actual >= number;
+      }
+    }
+  }
+
+  private static final class Not implements IssuePredicate {
+    private final IssuePredicate predicate;
+
+    Not(IssuePredicate predicate) {
+      this.predicate = predicate;
+    }
+
+    public boolean matches(IssueData issue, Date date) {
+      return !predicate.matches(issue, date);
+    }
+  }
+
+  private static final class And implements IssuePredicate {
+    private final IssuePredicate left;
+    private final IssuePredicate right;
+
+    And(IssuePredicate left, IssuePredicate right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    public boolean matches(IssueData issue, Date date) {
+      return left.matches(issue, date) && right.matches(issue, date);
+    }
+  }
+
+  private static final class Or implements IssuePredicate {
+    private final IssuePredicate left;
+    private final IssuePredicate right;
+
+    Or(IssuePredicate left, IssuePredicate right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    public boolean matches(IssueData issue, Date date) {
+      return left.matches(issue, date) || right.matches(issue, date);
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis.rest;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import biz.futureware.mantis.rpc.soap.client.AccountData;
+import biz.futureware.mantis.rpc.soap.client.FilterData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+import biz.futureware.mantis.rpc.soap.client.IssueNoteData;
+import biz.futureware.mantis.rpc.soap.client.ObjectRef;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streaming reader of the JSON documents returned by the Mantis REST API. Only the fields used by the plugin are
+ * bound, everything else is skipped without being materialized.
+ *
+ * @since 0.5
+ */
+public class MantisJsonReader {
+
+  private final JsonParser parser;
+
+  public MantisJsonReader(JsonParser parser) {
+    this.parser = parser;
+  }
+
+  /**
+   * Reads <code>{"projects":[{"id":1,"name":"..."}]}</code>.
+   *
+   * @return the id of the project, null if not found
+   */
+  public BigInteger readProjectId(String name) throws IOException {
+    if (!moveToArray("projects")) {
+      return null;
+    }
+    BigInteger id = null;
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      ObjectRef project = readObjectRef();
+      if (id == null && name.equals(project.getName())) {
+        id = project.getId();
+      }
+    }
+    return id;
+  }
+
+  /**
+   * Reads <code>{"filters":[{"id":1,"name":"..."}]}</code>.
+   */
+  public FilterData[] readFilters() throws IOException {
+    List<FilterData> filters = new ArrayList<FilterData>();
+    if (moveToArray("filters")) {
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        ObjectRef ref = readObjectRef();
+        FilterData filter = new FilterData();
+        filter.setId(ref.getId());
+        filter.setName(ref.getName());
+        filters.add(filter);
+      }
+    }
+    return filters.toArray(new FilterData[filters.size()]);
+  }
+
+  /**
+   * Reads <code>{"issues":[{...}]}</code>, without the notes.
+   */
+  public IssueData[] readIssues() throws IOException {
+    return readIssues(false);
+  }
+
+  /**
+   * Reads <code>{"issues":[{...}]}</code>.
+   *
+   * @param withNotes true to bind the notes of the issues, false to skip them
+   */
+  public IssueData[] readIssues(boolean withNotes) throws IOException {
+    List<IssueData> issues = new ArrayList<IssueData>();
+    if (moveToArray("issues")) {
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        issues.add(readIssue(withNotes));
+      }
+    }
+    return issues.toArray(new IssueData[issues.size()]);
+  }
+
+  private IssueData readIssue(boolean withNotes) throws IOException {
+    IssueData issue = new IssueData();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      if (parser.nextToken() == JsonToken.VALUE_NULL) {
+        continue;
+      }
+      if ("id".equals(field)) {
+        issue.setId(BigInteger.valueOf(parser.getLongValue()));
+      } else if ("summary".equals(field)) {
+        issue.setSummary(parser.getText());
+      } else if ("project".equals(field)) {
+        issue.setProject(readObjectRef());
+      } else if ("category".equals(field)) {
+        issue.setCategory(readObjectRef().getName());
+      } else if ("status".equals(field)) {
+        issue.setStatus(readObjectRef());
+      } else if ("priority".equals(field)) {
+        issue.setPriority(readObjectRef());
+      } else if ("severity".equals(field)) {
+        issue.setSeverity(readObjectRef());
+      } else if ("resolution".equals(field)) {
+        issue.setResolution(readObjectRef());
+      } else if ("reporter".equals(field)) {
+        issue.setReporter(readAccount());
+      } else if ("handler".equals(field)) {
+        issue.setHandler(readAccount());
+      } else if ("created_at".equals(field)) {
+        issue.setDate_submitted(parseDate(parser.getText()));
+      } else if ("updated_at".equals(field)) {
+        issue.setLast_updated(parseDate(parser.getText()));
+      } else if (withNotes && "notes".equals(field)) {
+        issue.setNotes(readNotes());
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (withNotes && issue.getNotes() == null) {
+      issue.setNotes(new IssueNoteData[0]);
+    }
+    return issue;
+  }
+
+  private IssueNoteData[] readNotes() throws IOException {
+    List<IssueNoteData> notes = new ArrayList<IssueNoteData>();
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      IssueNoteData note = new IssueNoteData();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        if (parser.nextToken() == JsonToken.VALUE_NULL) {
+          continue;
+        }
+        if ("id".equals(field)) {
+          note.setId(BigInteger.valueOf(parser.getLongValue()));
+        } else if ("reporter".equals(field)) {
+          note.setReporter(readAccount());
+        } else if ("text".equals(field)) {
+          note.setText(parser.getText());
+        } else if ("created_at".equals(field)) {
+          note.setDate_submitted(parseDate(parser.getText()));
+        } else if ("updated_at".equals(field)) {
+          note.setLast_modified(parseDate(parser.getText()));
+        } else {
+          parser.skipChildren();
+        }
+      }
+      notes.add(note);
+    }
+    return notes.toArray(new IssueNoteData[notes.size()]);
+  }
+
+  private ObjectRef readObjectRef() throws IOException {
+    ObjectRef ref = new ObjectRef();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      if ("id".equals(field)) {
+        ref.setId(BigInteger.valueOf(parser.getLongValue()));
+      } else if ("name".equals(field)) {
+        ref.setName(parser.getText());
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return ref;
+  }
+
+  private AccountData readAccount() throws IOException {
+    AccountData account = new AccountData();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      if ("id".equals(field)) {
+        account.setId(BigInteger.valueOf(parser.getLongValue()));
+      } else if ("name".equals(field)) {
+        account.setName(parser.getText());
+      } else if ("real_name".equals(field)) {
+        account.setReal_name(parser.getText());
+      } else if ("email".equals(field)) {
+        account.setEmail(parser.getText());
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return account;
+  }
+
+  /**
+   * Moves the parser to the start of the array held by the given field of the root object.
+   */
+  private boolean moveToArray(String name) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      return false;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (name.equals(field) && token == JsonToken.START_ARRAY) {
+        return true;
+      }
+      parser.skipChildren();
+    }
+    return false;
+  }
+
+  /**
+   * Parses ISO 8601 dates such as <code>2012-06-05T14:02:10+02:00</code>.
+   */
+  static Calendar parseDate(String text) throws IOException {
+    String date = text;
+    if (date.endsWith("Z")) {
+      date = date.substring(0, date.length() - 1) + "+0000";
+    } else if (date.length() > 6 && date.charAt(date.length() - 3) == ':') {
+      date = date.substring(0, date.length() - 3) + date.substring(date.length() - 2);
+    }
+    try {
+      Calendar calendar = Calendar.getInstance();
+      calendar.setTime(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").parse(date));
+      return calendar;
+    } catch (ParseException e) {
+      throw new IOException("Invalid date: " + text);
+    }
+  }
+}
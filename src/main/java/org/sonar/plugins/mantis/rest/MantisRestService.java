@@ -0,0 +1,224 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.rmi.RemoteException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.mantis.PagedIssueSource;
+import org.sonar.plugins.mantis.RateLimiter;
+
+import biz.futureware.mantis.rpc.soap.client.FilterData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Reads the issues through the REST API of Mantis 2.x. The password is sent as the API token of the user.
+ *
+ * @since 0.5
+ */
+public class MantisRestService extends PagedIssueSource {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MantisRestService.class);
+
+  public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+  public static final int DEFAULT_READ_TIMEOUT = 60000;
+
+  private final String apiUrl;
+  private final RateLimiter limiter;
+  private final int connectTimeout;
+  private final int readTimeout;
+  private final JsonFactory jsonFactory = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+  private String token;
+  private BigInteger projectId;
+
+  /**
+   * @param serverUrl base url of the Mantis server
+   * @param limiter limits the calls sent to Mantis, null for no limit
+   */
+  public MantisRestService(String serverUrl, RateLimiter limiter) {
+    this(serverUrl, limiter, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+  }
+
+  /**
+   * @param serverUrl base url of the Mantis server
+   * @param limiter limits the calls sent to Mantis, null for no limit
+   * @param connectTimeout milliseconds to wait for the connection to the server, zero to wait forever
+   * @param readTimeout milliseconds to wait for each read of an answer, zero to wait forever
+   */
+  public MantisRestService(String serverUrl, RateLimiter limiter, int connectTimeout, int readTimeout) {
+    this.apiUrl = (serverUrl.endsWith("/") ? serverUrl : serverUrl + "/") + "api/rest/";
+    this.limiter = limiter;
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+    LOG.debug("REST service endpoint at " + apiUrl);
+  }
+
+  public void connect(String login, String password, final String project) throws RemoteException {
+    LOG.debug("Connnecting via REST as : {} for project : {}", login, project);
+    this.token = password;
+    projectId = get("projects", new Response<BigInteger>() {
+      @Override
+      BigInteger read(MantisJsonReader reader) throws IOException {
+        return reader.readProjectId(project);
+      }
+    });
+    if (projectId == null) {
+      throw new RemoteException("Unable to find project '" + project + "' in Mantis");
+    }
+    LOG.info("Connected to Mantis REST API");
+  }
+
+  public BigInteger getProjectId() {
+    if (projectId == null) {
+      LOG.warn("Not connected yet! ProjecId isn't valid.");
+    }
+    return projectId;
+  }
+
+  public FilterData[] getFilters() throws RemoteException {
+    LOG.debug("Get filters via REST for : {}", getProjectId());
+    return get("filters", new Response<FilterData[]>() {
+      @Override
+      FilterData[] read(MantisJsonReader reader) throws IOException {
+        return reader.readFilters();
+      }
+    });
+  }
+
+  @Override
+  protected IssueData[] getIssuesPage(FilterData filter, int page, int count) throws RemoteException {
+    String path = "issues?project_id=" + getProjectId() + "&page_size=" + count + "&page=" + page;
+    if (filter != null) {
+      path += "&filter_id=" + filter.getId();
+    }
+    return get(path, new Response<IssueData[]>() {
+      @Override
+      IssueData[] read(MantisJsonReader reader) throws IOException {
+        return reader.readIssues();
+      }
+    });
+  }
+
+  public IssueData getIssue(BigInteger id) throws RemoteException {
+    IssueData[] issues = get("issues/" + id, new Response<IssueData[]>() {
+      @Override
+      IssueData[] read(MantisJsonReader reader) throws IOException {
+        return reader.readIssues(true);
+      }
+    });
+    return issues.length > 0 ? issues[0] : null;
+  }
+
+  public void disconnect() throws RemoteException {
+    token = null;
+  }
+
+  private <T> T get(String path, Response<T> response) throws RemoteException {
+    int permit = acquire();
+    HttpURLConnection connection = null;
+    // a connection whose answer was read to the end goes back to the keep-alive cache, any other one is closed
+    boolean released = false;
+    try {
+      connection = (HttpURLConnection) new URL(apiUrl + path).openConnection();
+      connection.setConnectTimeout(connectTimeout);
+      connection.setReadTimeout(readTimeout);
+      connection.setRequestProperty("Accept", "application/json");
+      if (token != null) {
+        connection.setRequestProperty("Authorization", token);
+      }
+      int status = connection.getResponseCode();
+      if (status < 200 || status >= 300) {
+        drain(connection.getErrorStream());
+        released = true;
+        throw new RemoteException("Mantis REST API answered " + status + " to " + apiUrl + path);
+      }
+      InputStream input = connection.getInputStream();
+      T result;
+      try {
+        JsonParser parser = jsonFactory.createParser(input);
+        try {
+          result = response.read(new MantisJsonReader(parser));
+        } finally {
+          parser.close();
+        }
+        drain(input);
+      } finally {
+        input.close();
+      }
+      released = true;
+      return result;
+    } catch (RemoteException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new RemoteException("Error calling Mantis REST API " + apiUrl + path, e);
+    } finally {
+      if (connection != null && !released) {
+        connection.disconnect();
+      }
+      if (limiter != null) {
+        limiter.release(permit);
+      }
+    }
+  }
+
+  /**
+   * Reads to its end and closes the body of an answer, so that its connection can be kept alive.
+   */
+  private static void drain(InputStream body) throws IOException {
+    if (body == null) {
+      return;
+    }
+    try {
+      byte[] buffer = new byte[4096];
+      while (body.read(buffer) != -1) {
+        // skipped
+      }
+    } finally {
+      body.close();
+    }
+  }
+
+  private int acquire() throws RemoteException {
+    if (limiter == null) {
+      return -1;
+    }
+    try {
+      return limiter.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Interrupted while waiting to call Mantis");
+    }
+  }
+
+  private abstract static class Response<T> {
+    abstract T read(MantisJsonReader reader) throws IOException;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis.soap;
+
+import java.net.URL;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.rpc.ServiceException;
+
+import biz.futureware.mantis.rpc.soap.client.MantisConnectLocator;
+import biz.futureware.mantis.rpc.soap.client.MantisConnectPortType;
+
+/**
+ * Recycles the port stubs created from an Axis locator, so that the Axis engine configuration and the type
+ * mappings of the MantisConnect beans are built once instead of once per analysis. The shared instance keeps
+ * one locator per classloader; tests give their own locator.
+ * <p>
+ * Axis stubs are not thread-safe: a stub is borrowed for a single call at a time, by {@link PooledPortType}, and
+ * given back as soon as the call returns.
+ *
+ * @since 0.5
+ */
+public final class MantisConnectStubs {
+
+  static final int MAX_IDLE_STUBS = 16;
+
+  private static MantisConnectStubs shared;
+
+  private final MantisConnectLocator locator;
+  private final ConcurrentMap<String, Queue<MantisConnectPortType>> idle = new ConcurrentHashMap<String, Queue<MantisConnectPortType>>();
+  private final AtomicInteger created = new AtomicInteger();
+
+  public MantisConnectStubs(MantisConnectLocator locator) {
+    this.locator = locator;
+  }
+
+  public static synchronized MantisConnectStubs getShared() {
+    if (shared == null) {
+      shared = new MantisConnectStubs(new MantisConnectLocator());
+    }
+    return shared;
+  }
+
+  /**
+   * @param url endpoint of the stub, null for the default endpoint of the WSDL
+   */
+  public MantisConnectPortType borrow(URL url) throws ServiceException {
+    MantisConnectPortType stub = idleStubs(url).poll();
+    if (stub == null) {
+      created.incrementAndGet();
+      stub = url == null ? locator.getMantisConnectPort() : locator.getMantisConnectPort(url);
+    }
+    return stub;
+  }
+
+  public void giveBack(URL url, MantisConnectPortType stub) {
+    Queue<MantisConnectPortType> stubs = idleStubs(url);
+    if (stubs.size() < MAX_IDLE_STUBS) {
+      stubs.offer(stub);
+    }
+  }
+
+  /**
+   * @return the number of stubs created by this instance
+   */
+  public int getCreatedStubs() {
+    return created.get();
+  }
+
+  private Queue<MantisConnectPortType> idleStubs(URL url) {
+    String key = url == null ? "" : url.toExternalForm();
+    Queue<MantisConnectPortType> stubs = idle.get(key);
+    if (stubs == null) {
+      idle.putIfAbsent(key, new ConcurrentLinkedQueue<MantisConnectPortType>());
+      stubs = idle.get(key);
+    }
+    return stubs;
+  }
+}
@@ -23,29 +23,28 @@ package org.sonar.plugins.mantis.soap;
 import java.math.BigInteger;
 import java.net.URL;
 import java.rmi.RemoteException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
 import javax.xml.rpc.ServiceException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.plugins.mantis.MantisEvents;
+import org.sonar.plugins.mantis.PagedIssueSource;
+import org.sonar.plugins.mantis.RateLimiter;
 
 import biz.futureware.mantis.rpc.soap.client.FilterData;
 import biz.futureware.mantis.rpc.soap.client.IssueData;
-import biz.futureware.mantis.rpc.soap.client.MantisConnectLocator;
 import biz.futureware.mantis.rpc.soap.client.MantisConnectPortType;
 
 /**
  * @author Jeremie Lagarde
  * @since 0.1
  */
-public class MantisSoapService {
+public class MantisSoapService extends PagedIssueSource {
 
   private static final Logger LOG = LoggerFactory.getLogger(MantisSoapService.class);
 
-  private MantisConnectPortType mantisConnectPortType;
+  private final MantisConnectPortType mantisConnectPortType;
   private String username;
   private String password;
   private BigInteger projectId;
@@ -58,83 +57,115 @@ public class MantisSoapService {
   }
 
   public MantisSoapService(URL webServiceURL) throws RemoteException {
-    MantisConnectLocator mantisConnectLocator = createMantisConnectLocator();
+    this(webServiceURL, null);
+  }
+
+  /**
+   * @param limiter limits the calls sent to Mantis, null for no limit
+   */
+  public MantisSoapService(URL webServiceURL, RateLimiter limiter) throws RemoteException {
+    this(webServiceURL, limiter, MantisConnectStubs.getShared());
+  }
+
+  /**
+   * @param limiter limits the calls sent to Mantis, null for no limit
+   * @param stubs pool of the stubs, each call borrows one so that the service accepts concurrent calls
+   */
+  public MantisSoapService(URL webServiceURL, RateLimiter limiter, MantisConnectStubs stubs) throws RemoteException {
     try {
-      if (webServiceURL == null) {
-        mantisConnectPortType = mantisConnectLocator.getMantisConnectPort();
-      } else {
-        mantisConnectPortType = mantisConnectLocator.getMantisConnectPort(webServiceURL);
-        LOG.debug("SOAP Session service endpoint at " + webServiceURL.toExternalForm());
-      }
+      // creates the first stub now so that a broken endpoint fails here
+      stubs.giveBack(webServiceURL, stubs.borrow(webServiceURL));
     } catch (ServiceException e) {
       throw new RemoteException("ServiceException during SOAPClient contruction", e);
     }
+    if (webServiceURL != null) {
+      LOG.debug("SOAP Session service endpoint at " + webServiceURL.toExternalForm());
+    }
+    MantisConnectPortType pooledPortType = PooledPortType.wrap(stubs, webServiceURL);
+    mantisConnectPortType = limiter != null ? RateLimitedPortType.wrap(pooledPortType, limiter) : pooledPortType;
   }
 
   public void connect(String login, String password, String project) throws RemoteException {
     LOG.debug("Connnecting via SOAP as : {} for project : {}", login, project);
     this.username = login;
     this.password = password;
-    projectId = mantisConnectPortType.mc_project_get_id_from_name(login, password, project);
-    String version = mantisConnectPortType.mc_version();
+    Object event = MantisEvents.SOAP_CALL.begin();
+    boolean failed = true;
+    try {
+      projectId = mantisConnectPortType.mc_project_get_id_from_name(login, password, project);
+      failed = false;
+    } finally {
+      if (event != null) {
+        MantisEvents.SOAP_CALL.commit(event, "mc_project_get_id_from_name", 0, 0, failed ? 0 : 1, failed);
+      }
+    }
+    event = MantisEvents.SOAP_CALL.begin();
+    failed = true;
+    String version;
+    try {
+      version = mantisConnectPortType.mc_version();
+      failed = false;
+    } finally {
+      if (event != null) {
+        MantisEvents.SOAP_CALL.commit(event, "mc_version", 0, 0, failed ? 0 : 1, failed);
+      }
+    }
     LOG.info("Connected to Mantis({})", version);
   }
 
   public FilterData[] getFilters() throws RemoteException {
     LOG.debug("Get filters via SOAP for : {}", getProjectId());
-    return mantisConnectPortType.mc_filter_get(username, password, getProjectId());
+    Object event = MantisEvents.SOAP_CALL.begin();
+    FilterData[] filters = null;
+    boolean failed = true;
+    try {
+      filters = mantisConnectPortType.mc_filter_get(username, password, getProjectId());
+      failed = false;
+      return filters;
+    } finally {
+      if (event != null) {
+        MantisEvents.SOAP_CALL.commit(event, "mc_filter_get", 0, 0, filters != null ? filters.length : 0, failed);
+      }
+    }
   }
 
-  private IssueData[] getIssuesPage(FilterData filter, int page, int count) throws RemoteException {
-    return filter == null
-        ? mantisConnectPortType.mc_project_get_issues(username, password, getProjectId(),
-            BigInteger.valueOf(page), BigInteger.valueOf(count))
-        : mantisConnectPortType.mc_filter_get_issues(username, password, getProjectId(), filter.getId(),
-            BigInteger.valueOf(page), BigInteger.valueOf(count));
+  @Override
+  protected IssueData[] getIssuesPage(FilterData filter, int page, int count) throws RemoteException {
+    Object event = MantisEvents.SOAP_CALL.begin();
+    IssueData[] issues = null;
+    boolean failed = true;
+    try {
+      issues = filter == null
+          ? mantisConnectPortType.mc_project_get_issues(username, password, getProjectId(),
+              BigInteger.valueOf(page), BigInteger.valueOf(count))
+          : mantisConnectPortType.mc_filter_get_issues(username, password, getProjectId(), filter.getId(),
+              BigInteger.valueOf(page), BigInteger.valueOf(count));
+      failed = false;
+      return issues;
+    } finally {
+      if (event != null) {
+        MantisEvents.SOAP_CALL.commit(event, filter == null ? "mc_project_get_issues" : "mc_filter_get_issues", page, count,
+            issues != null ? issues.length : 0, failed);
+      }
+    }
   }
 
-  public IssueData[] getIssues(FilterData filter) throws RemoteException {
-    LOG.debug("Get issues via SOAP for {} : {}", getProjectId(), filter.getName());
-    List<IssueData> issues = new ArrayList<IssueData>();
-    IssueData[] result = null;
-    int page = 1;
-    BigInteger firstIssueInPage = BigInteger.ZERO; // temporary hack for SONARPLUGINS-1163
-    do {
-      try {
-        LOG.debug("Get issues from index {} to {}", ((page - 1) * 50), (page * 50) - 1);
-        result = getIssuesPage(filter, page++, 50);
-        if (result.length != 0) {
-          if (firstIssueInPage.equals(result[0].getId())) {
-            result = new IssueData[0];
-          }
-          firstIssueInPage = result[0].getId();
-          issues.addAll(Arrays.asList(result));
-        }
-      } catch (Exception ex) {
-        LOG.warn("Get issues via SOAP", ex);
-        for (int i = ((page - 2) * 50); i < ((page - 1) * 50); i++) {
-          LOG.info("Trying to get issue at index {}", i);
-          try {
-            IssueData[] data = getIssuesPage(filter, i + 1, 1);
-            if (data.length == 1) {
-              issues.add(data[0]);
-              LOG.info("Issue {} recovered.", data[0].getId());
-            } else {
-              break;
-            }
-          } catch (Exception ex2) {
-            LOG.warn("Get issue at index " + i, ex);
-          }
-        }
+  public IssueData getIssue(BigInteger id) throws RemoteException {
+    Object event = MantisEvents.SOAP_CALL.begin();
+    IssueData issue = null;
+    boolean failed = true;
+    try {
+      issue = mantisConnectPortType.mc_issue_get(username, password, id);
+      failed = false;
+      return issue;
+    } finally {
+      if (event != null) {
+        MantisEvents.SOAP_CALL.commit(event, "mc_issue_get", 0, 1, issue != null ? 1 : 0, failed);
       }
-    } while (result == null || result.length == 50);
-    return issues.toArray(new IssueData[issues.size()]);
+    }
   }
 
   public void disconnect() throws RemoteException {
-  }
-
-  protected MantisConnectLocator createMantisConnectLocator() {
-    return new MantisConnectLocator();
+    // nothing to release, each call gives its stub back
   }
 }
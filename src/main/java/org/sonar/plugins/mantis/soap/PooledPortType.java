@@ -0,0 +1,77 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis.soap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.rmi.RemoteException;
+
+import javax.xml.rpc.ServiceException;
+
+import biz.futureware.mantis.rpc.soap.client.MantisConnectPortType;
+
+/**
+ * Proxy of {@link MantisConnectPortType} that borrows a stub from {@link MantisConnectStubs} for each call and gives
+ * it back afterwards. Axis stubs are not thread-safe: the proxy lets several threads call Mantis at the same time,
+ * each on its own stub.
+ *
+ * @since 0.5
+ */
+public final class PooledPortType implements InvocationHandler {
+
+  private final MantisConnectStubs stubs;
+  private final URL url;
+
+  private PooledPortType(MantisConnectStubs stubs, URL url) {
+    this.stubs = stubs;
+    this.url = url;
+  }
+
+  /**
+   * @param url endpoint of the stubs, null for the default endpoint of the WSDL
+   */
+  public static MantisConnectPortType wrap(MantisConnectStubs stubs, URL url) {
+    return (MantisConnectPortType) Proxy.newProxyInstance(MantisConnectPortType.class.getClassLoader(),
+        new Class<?>[] {MantisConnectPortType.class}, new PooledPortType(stubs, url));
+  }
+
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return method.invoke(this, args);
+    }
+    MantisConnectPortType stub;
+    try {
+      stub = stubs.borrow(url);
+    } catch (ServiceException e) {
+      throw new RemoteException("Unable to create a SOAP stub to call " + method.getName(), e);
+    }
+    try {
+      return method.invoke(stub, args);
+    } catch (InvocationTargetException e) {
+      throw e.getTargetException();
+    } finally {
+      stubs.giveBack(url, stub);
+    }
+  }
+}
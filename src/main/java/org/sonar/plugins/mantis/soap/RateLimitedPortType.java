@@ -0,0 +1,72 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis.soap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+
+import org.sonar.plugins.mantis.RateLimiter;
+
+import biz.futureware.mantis.rpc.soap.client.MantisConnectPortType;
+
+/**
+ * Proxy of {@link MantisConnectPortType} that takes a permit from a {@link RateLimiter} around each call.
+ *
+ * @since 0.5
+ */
+public final class RateLimitedPortType implements InvocationHandler {
+
+  private final MantisConnectPortType delegate;
+  private final RateLimiter limiter;
+
+  private RateLimitedPortType(MantisConnectPortType delegate, RateLimiter limiter) {
+    this.delegate = delegate;
+    this.limiter = limiter;
+  }
+
+  public static MantisConnectPortType wrap(MantisConnectPortType delegate, RateLimiter limiter) {
+    return (MantisConnectPortType) Proxy.newProxyInstance(MantisConnectPortType.class.getClassLoader(),
+        new Class<?>[] {MantisConnectPortType.class}, new RateLimitedPortType(delegate, limiter));
+  }
+
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return method.invoke(delegate, args);
+    }
+    int permit;
+    try {
+      permit = limiter.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Interrupted while waiting to call " + method.getName());
+    }
+    try {
+      return method.invoke(delegate, args);
+    } catch (InvocationTargetException e) {
+      throw e.getTargetException();
+    } finally {
+      limiter.release(permit);
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.Calendar;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import biz.futureware.mantis.rpc.soap.client.AccountData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+import biz.futureware.mantis.rpc.soap.client.IssueNoteData;
+import biz.futureware.mantis.rpc.soap.client.ObjectRef;
+
+public class FetchJournalTest {
+
+  private static final long WINDOW = 60 * 1000L;
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private static IssueData[] page(int first, int count) {
+    IssueData[] issues = new IssueData[count];
+    for (int i = 0; i < count; i++) {
+      issues[i] = new IssueData();
+      issues[i].setId(BigInteger.valueOf(first - i));
+      issues[i].setSummary("Issue " + (first - i));
+    }
+    return issues;
+  }
+
+  private File journalWithTwoPages() {
+    File file = new File(temp.getRoot(), "mantis/fetch.journal");
+    FetchJournal journal = new FetchJournal(file, "soap|myproject", WINDOW);
+    assertThat(journal.resume(50).size(), is(0));
+    journal.append(1, page(300, 50));
+    journal.append(2, page(250, 50));
+    journal.close();
+    return file;
+  }
+
+  private static int resumeAndClose(File file, String key, int pageSize) {
+    FetchJournal journal = new FetchJournal(file, key, WINDOW);
+    int pages = journal.resume(pageSize).size();
+    journal.close();
+    return pages;
+  }
+
+  @Test
+  public void testResume() {
+    File file = journalWithTwoPages();
+    FetchJournal journal = new FetchJournal(file, "soap|myproject", WINDOW);
+    List<IssueData[]> pages = journal.resume(50);
+    assertThat(pages.size(), is(2));
+    assertThat(pages.get(1)[0].getId(), is(BigInteger.valueOf(250)));
+    assertThat(pages.get(1)[0].getSummary(), is("Issue 250"));
+
+    journal.append(3, page(200, 50));
+    journal.close();
+    assertThat(resumeAndClose(file, "soap|myproject", 50), is(3));
+  }
+
+  @Test
+  public void testCompleteDeletesJournal() {
+    File file = journalWithTwoPages();
+    FetchJournal journal = new FetchJournal(file, "soap|myproject", WINDOW);
+    journal.resume(50);
+    journal.complete();
+    assertThat(file.exists(), is(false));
+  }
+
+  @Test
+  public void testOtherFetchIsNotResumed() {
+    File file = journalWithTwoPages();
+    assertThat(resumeAndClose(file, "soap|otherproject", 50), is(0));
+    // the journal was restarted for the other fetch
+    assertThat(resumeAndClose(file, "soap|myproject", 50), is(0));
+
+    assertThat(file.delete(), is(true));
+    file = journalWithTwoPages();
+    assertThat(resumeAndClose(file, "soap|myproject", 20), is(0));
+  }
+
+  @Test
+  public void testOldJournalIsNotResumed() {
+    File file = journalWithTwoPages();
+    assertThat(file.setLastModified(System.currentTimeMillis() - 2 * WINDOW), is(true));
+    assertThat(resumeAndClose(file, "soap|myproject", 50), is(0));
+  }
+
+  @Test
+  public void testTruncatedRecordIsDropped() throws Exception {
+    File file = journalWithTwoPages();
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(raf.length() - 10);
+    raf.close();
+    FetchJournal journal = new FetchJournal(file, "soap|myproject", WINDOW);
+    assertThat(journal.resume(50).size(), is(1));
+    journal.append(2, page(250, 50));
+    journal.close();
+    assertThat(resumeAndClose(file, "soap|myproject", 50), is(2));
+  }
+
+  @Test
+  public void testInvalidRecordLengthIsDropped() throws Exception {
+    for (int length : new int[] {-1, Integer.MAX_VALUE}) {
+      File file = journalWithTwoPages();
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      raf.readInt();
+      raf.readInt();
+      raf.readUTF();
+      raf.readInt();
+      raf.readInt();
+      int firstLength = raf.readInt();
+      // skips the first record and the page number of the second one
+      raf.seek(raf.getFilePointer() + firstLength + 4);
+      raf.writeInt(length);
+      raf.close();
+      FetchJournal journal = new FetchJournal(file, "soap|myproject", WINDOW);
+      assertThat(journal.resume(50).size(), is(1));
+      journal.complete();
+    }
+  }
+
+  @Test
+  public void testIssueFieldsAreKept() {
+    File file = new File(temp.getRoot(), "fetch.journal");
+    FetchJournal journal = new FetchJournal(file, "soap|myproject", WINDOW);
+    journal.resume(50);
+    IssueData issue = new IssueData();
+    issue.setId(BigInteger.valueOf(42));
+    issue.setStatus(new ObjectRef(BigInteger.valueOf(10), "new"));
+    issue.setReporter(new AccountData(BigInteger.valueOf(99), "customer", null, null));
+    Calendar submitted = Calendar.getInstance();
+    submitted.setTimeInMillis(1338544800000L);
+    issue.setDate_submitted(submitted);
+    IssueNoteData note = new IssueNoteData();
+    note.setReporter(new AccountData(BigInteger.valueOf(5), "user5", null, null));
+    note.setText(StringUtils.repeat("long note ", 10000));
+    note.setDate_submitted(submitted);
+    issue.setNotes(new IssueNoteData[] {note});
+    journal.append(1, new IssueData[] {issue, new IssueData()});
+    journal.close();
+
+    IssueData[] page = new FetchJournal(file, "soap|myproject", WINDOW).resume(50).get(0);
+    assertThat(page.length, is(2));
+    assertThat(page[0].getId(), is(BigInteger.valueOf(42)));
+    assertThat(page[0].getStatus().getName(), is("new"));
+    assertThat(page[0].getPriority(), nullValue());
+    assertThat(page[0].getReporter().getName(), is("customer"));
+    assertThat(page[0].getDate_submitted().getTimeInMillis(), is(1338544800000L));
+    assertThat(page[0].getLast_updated(), nullValue());
+    assertThat(page[0].getNotes()[0].getReporter().getId(), is(BigInteger.valueOf(5)));
+    assertThat(page[0].getNotes()[0].getText().length(), is(100000));
+    assertThat(page[1].getId(), nullValue());
+    assertThat(page[1].getNotes(), nullValue());
+  }
+
+  @Test
+  public void testJournalInUseIsNotShared() {
+    File file = journalWithTwoPages();
+    FetchJournal first = new FetchJournal(file, "soap|myproject", WINDOW);
+    assertThat(first.resume(50).size(), is(2));
+
+    FetchJournal second = new FetchJournal(file, "soap|myproject", WINDOW);
+    assertThat(second.resume(50).size(), is(0));
+    assertThat(second.isDisabled(), is(true));
+    second.append(1, page(300, 50));
+    second.complete();
+    assertThat(file.exists(), is(true));
+
+    first.append(3, page(200, 50));
+    first.close();
+    assertThat(resumeAndClose(file, "soap|myproject", 50), is(3));
+  }
+}
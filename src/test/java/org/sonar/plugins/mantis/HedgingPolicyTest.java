@@ -0,0 +1,102 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.fail;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class HedgingPolicyTest {
+
+  private static final Callable<String> FAST = new Callable<String>() {
+    public String call() {
+      return "fast";
+    }
+  };
+
+  /**
+   * The first call sleeps, the following ones answer at once.
+   */
+  private static Callable<String> slowFirst(final long millis) {
+    final AtomicInteger calls = new AtomicInteger();
+    return new Callable<String>() {
+      public String call() throws Exception {
+        if (calls.getAndIncrement() == 0) {
+          Thread.sleep(millis);
+          return "slow";
+        }
+        return "hedged";
+      }
+    };
+  }
+
+  @Test
+  public void testSlowRequestIsHedged() throws Exception {
+    HedgingPolicy policy = new HedgingPolicy(90, 1);
+    for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+      assertThat(policy.call(FAST), is("fast"));
+    }
+    long start = System.currentTimeMillis();
+    assertThat(policy.call(slowFirst(10000)), is("hedged"));
+    assertThat(System.currentTimeMillis() - start, lessThan(5000L));
+    assertThat(policy.getHedges(), is(1));
+    assertThat(policy.getRequests(), is(HedgingPolicy.MIN_SAMPLES + 1));
+  }
+
+  @Test
+  public void testNoHedgeBeforeEnoughSamples() throws Exception {
+    HedgingPolicy policy = new HedgingPolicy(90, 1);
+    assertThat(policy.call(slowFirst(200)), is("slow"));
+    assertThat(policy.getHedges(), is(0));
+  }
+
+  @Test
+  public void testHedgeRateIsCapped() throws Exception {
+    HedgingPolicy policy = new HedgingPolicy(90, 0.1);
+    for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+      policy.call(FAST);
+    }
+    assertThat(policy.call(slowFirst(200)), is("slow"));
+    assertThat(policy.getHedges(), is(0));
+  }
+
+  @Test
+  public void testFailureIsRethrown() throws Exception {
+    HedgingPolicy policy = new HedgingPolicy(90, 1);
+    try {
+      policy.call(new Callable<String>() {
+        public String call() throws RemoteException {
+          throw new RemoteException("Mantis is down");
+        }
+      });
+      fail();
+    } catch (RemoteException e) {
+      assertThat(e.getMessage(), is("Mantis is down"));
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.math.BigInteger;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import biz.futureware.mantis.rpc.soap.client.FilterData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+
+public class IssueDetailLoaderTest {
+
+  /**
+   * Answers every issue but #13, counting the reads.
+   */
+  private static class CountingSource implements IssueSource {
+    final AtomicInteger reads = new AtomicInteger();
+
+    public void connect(String login, String password, String project) {
+    }
+
+    public BigInteger getProjectId() {
+      return BigInteger.ONE;
+    }
+
+    public FilterData[] getFilters() {
+      return new FilterData[0];
+    }
+
+    public IssueData[] getIssues(FilterData filter) {
+      return new IssueData[0];
+    }
+
+    public IssueData getIssue(BigInteger id) throws RemoteException {
+      reads.incrementAndGet();
+      if (id.intValue() == 13) {
+        throw new RemoteException("Issue 13 not found");
+      }
+      IssueData issue = new IssueData();
+      issue.setId(id);
+      issue.setSummary("Issue " + id);
+      return issue;
+    }
+
+    public void disconnect() {
+    }
+  }
+
+  private static IssueData header(int id) {
+    IssueData issue = new IssueData();
+    issue.setId(BigInteger.valueOf(id));
+    return issue;
+  }
+
+  @Test
+  public void testLoad() throws Exception {
+    CountingSource source = new CountingSource();
+    List<IssueData> issues = new ArrayList<IssueData>();
+    for (int i = 1; i <= 100; i++) {
+      issues.add(header(i));
+    }
+    issues.add(header(42));
+
+    Map<BigInteger, IssueData> details = new IssueDetailLoader(source, 4).load(issues);
+    assertThat(source.reads.get(), is(100));
+    assertThat(details.size(), is(99));
+    assertThat(details.get(BigInteger.valueOf(42)).getSummary(), is("Issue 42"));
+    assertThat(details.containsKey(BigInteger.valueOf(13)), is(false));
+  }
+
+  @Test
+  public void testLoadNothing() throws Exception {
+    CountingSource source = new CountingSource();
+    assertThat(new IssueDetailLoader(source, 4).load(new ArrayList<IssueData>()).isEmpty(), is(true));
+    assertThat(source.reads.get(), is(0));
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.util.Calendar;
+
+import biz.futureware.mantis.rpc.soap.client.AccountData;
+import biz.futureware.mantis.rpc.soap.client.FilterData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+import biz.futureware.mantis.rpc.soap.client.MantisConnectPortType;
+import biz.futureware.mantis.rpc.soap.client.ObjectRef;
+
+/**
+ * Generates the pages of a backlog on demand, sharing every immutable part of the issues. Serves as a
+ * {@link MantisConnectPortType} through a dynamic proxy, without recording the calls like a mock would.
+ *
+ * @since 0.5
+ */
+public class IssueGenerator implements InvocationHandler {
+
+  private static final String[] STATUS = {"new", "feedback", "acknowledged", "confirmed", "assigned", "resolved", "closed"};
+  private static final int[] STATUS_IDS = {10, 20, 30, 40, 50, 80, 90};
+  private static final String[] PRIORITIES = {"low", "normal", "high", "urgent", "immediate"};
+
+  private final int total;
+  private final ObjectRef[] status = new ObjectRef[STATUS.length];
+  private final ObjectRef[] priorities = new ObjectRef[PRIORITIES.length];
+  private final AccountData[] users = new AccountData[2000];
+  private final Calendar[] dates = new Calendar[400];
+  private final FilterData filter = new FilterData(BigInteger.ONE, null, BigInteger.ONE, true, "current-version", "", "");
+
+  public IssueGenerator(int total) {
+    this.total = total;
+    for (int i = 0; i < status.length; i++) {
+      status[i] = new ObjectRef(BigInteger.valueOf(STATUS_IDS[i]), STATUS[i]);
+    }
+    for (int i = 0; i < priorities.length; i++) {
+      priorities[i] = new ObjectRef(BigInteger.valueOf((i + 2) * 10), PRIORITIES[i]);
+    }
+    for (int i = 0; i < users.length; i++) {
+      users[i] = new AccountData(BigInteger.valueOf(i), "user" + i, "User " + i, "user" + i + "@example.com");
+    }
+    for (int i = 0; i < dates.length; i++) {
+      dates[i] = Calendar.getInstance();
+      dates[i].add(Calendar.DAY_OF_YEAR, -i);
+    }
+  }
+
+  public MantisConnectPortType portType() {
+    return (MantisConnectPortType) Proxy.newProxyInstance(MantisConnectPortType.class.getClassLoader(),
+        new Class<?>[] {MantisConnectPortType.class}, this);
+  }
+
+  public Object invoke(Object proxy, Method method, Object[] args) {
+    String name = method.getName();
+    if ("mc_project_get_id_from_name".equals(name)) {
+      return BigInteger.ONE;
+    } else if ("mc_version".equals(name)) {
+      return "1.2.9";
+    } else if ("mc_filter_get".equals(name)) {
+      return new FilterData[] {filter};
+    } else if ("mc_filter_get_issues".equals(name)) {
+      return page(((BigInteger) args[4]).intValue(), ((BigInteger) args[5]).intValue());
+    }
+    throw new UnsupportedOperationException(name);
+  }
+
+  public IssueData[] page(int page, int count) {
+    int pageCount = Math.max(1, (total + count - 1) / count);
+    int from = (Math.min(page, pageCount) - 1) * count;
+    int to = Math.min(from + count, total);
+    IssueData[] issues = new IssueData[to - from];
+    for (int i = from; i < to; i++) {
+      IssueData issue = new IssueData();
+      issue.setId(BigInteger.valueOf(total - i));
+      issue.setSummary("Generated issue");
+      issue.setStatus(status[i % status.length]);
+      issue.setPriority(priorities[i % priorities.length]);
+      issue.setHandler(i % 10 == 0 ? null : users[(i * 7) % users.length]);
+      issue.setReporter(users[(i * 13) % users.length]);
+      issue.setDate_submitted(dates[i % dates.length]);
+      issue.setLast_updated(dates[(i / 2) % dates.length]);
+      issues[i - from] = issue;
+    }
+    return issues;
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.rmi.RemoteException;
+import java.util.Random;
+
+import org.junit.Test;
+import org.sonar.api.measures.Metric;
+
+import biz.futureware.mantis.rpc.soap.client.FilterData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+
+/**
+ * @since 0.5
+ */
+public class IssueSamplerTest {
+
+  private static final int[] TOTALS = {0, 1, 2, 3, 49, 50, 51, 1000, 12345};
+
+  @Test
+  public void testCountWhenMantisRepeatsTheLastPage() throws Exception {
+    for (int total : TOTALS) {
+      CountingSource source = new CountingSource(total, false);
+      assertThat(new IssueSampler(source, 0, new Random(1)).count(null), is(total));
+      assertThat(source.requests, lessThanOrEqualTo(2 + 2 * 32));
+    }
+  }
+
+  @Test
+  public void testCountWhenNothingIsAnsweredPastTheEnd() throws Exception {
+    for (int total : TOTALS) {
+      assertThat(new IssueSampler(new CountingSource(total, true), 0, new Random(1)).count(null), is(total));
+    }
+  }
+
+  @Test
+  public void testSampleReadsOnePageWithoutBudget() throws Exception {
+    IssueSample sample = new IssueSampler(new CountingSource(1000, false), 0, new Random(1)).sample(null);
+    assertThat(new IssueSampler(new CountingSource(0, false), 0, new Random(1)).sample(null).isComplete(), is(true));
+    assertThat(sample.getTotal(), is(1000));
+    assertThat(sample.getPageCount(), is(20));
+    assertThat(sample.getPagesRead(), is(1));
+    assertThat(sample.getIssues().length, is(50));
+    assertThat(sample.isComplete(), is(false));
+  }
+
+  @Test
+  public void testSampleReadsEveryPageWithinBudget() throws Exception {
+    IssueSample sample = new IssueSampler(new CountingSource(1020, false), 60000, new Random(1)).sample(null);
+    assertThat(sample.isComplete(), is(true));
+    assertThat(sample.getIssues().length, is(1020));
+    LongHashSet ids = new LongHashSet();
+    for (IssueData issue : sample.getIssues()) {
+      ids.add(issue.getId().longValue());
+    }
+    assertThat(ids.size(), is(1020));
+  }
+
+  @Test
+  public void testEstimateBoundsContainTheExactCountMostOfTheTime() throws Exception {
+    CountingSource source = new CountingSource(10000, false);
+    Metric metric = MantisMetrics.STATUS;
+    // a third of the issues, grouped in runs of 100 consecutive issues like the issues updated together
+    long exact = 0;
+    for (int id = 1; id <= 10000; id++) {
+      exact += (id / 100) % 3 == 0 ? 1 : 0;
+    }
+    int covered = 0;
+    for (int seed = 0; seed < 100; seed++) {
+      IssueSample sample = samplePages(source, 20, seed);
+      ClusterEstimator estimator = new ClusterEstimator(sample);
+      IssueData[] issues = sample.getIssues();
+      for (int i = 0; i < issues.length; i++) {
+        if ((issues[i].getId().intValue() / 100) % 3 == 0) {
+          estimator.add(metric, "x", i);
+        }
+      }
+      String bounds = estimator.bounds();
+      String[] range = bounds.substring(bounds.indexOf('=') + 1).split("-");
+      long lower = Long.parseLong(range[0]);
+      long upper = Long.parseLong(range[1]);
+      assertThat(estimator.sum(metric), greaterThanOrEqualTo(lower));
+      assertThat(estimator.sum(metric), lessThanOrEqualTo(upper));
+      if (lower <= exact && exact <= upper) {
+        covered++;
+      }
+    }
+    assertThat(covered, greaterThanOrEqualTo(85));
+  }
+
+  /**
+   * Reads a fixed number of random pages, whatever the time they take.
+   */
+  private static IssueSample samplePages(PagedIssueSource source, final int pages, long seed) throws RemoteException {
+    IssueSample all = new IssueSampler(source, 60000, new Random(seed)).sample(null);
+    int end = all.getPageEnd(pages - 1);
+    IssueData[] issues = new IssueData[end];
+    System.arraycopy(all.getIssues(), 0, issues, 0, end);
+    int[] ends = new int[pages];
+    for (int i = 0; i < pages; i++) {
+      ends[i] = all.getPageEnd(i);
+    }
+    return new IssueSample(all.getTotal(), all.getPageCount(), issues, ends);
+  }
+
+  private static class CountingSource extends SyntheticIssueSource {
+
+    private final int total;
+    private final boolean emptyPastEnd;
+    int requests;
+
+    CountingSource(int total, boolean emptyPastEnd) {
+      super(total, 0, null);
+      this.total = total;
+      this.emptyPastEnd = emptyPastEnd;
+    }
+
+    @Override
+    protected IssueData[] getIssuesPage(FilterData filter, int page, int count) throws RemoteException {
+      requests++;
+      if (emptyPastEnd && (long) (page - 1) * count >= total) {
+        return new IssueData[0];
+      }
+      return super.getIssuesPage(filter, page, count);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.Test;
+
+/**
+ * @since 0.5
+ */
+public class LongHashSetTest {
+
+  @Test
+  public void testAddAndContains() {
+    LongHashSet set = new LongHashSet(4);
+    for (long i = 0; i < 10000; i++) {
+      assertThat(set.add(i * 7), is(true));
+    }
+    assertThat(set.size(), is(10000));
+    for (long i = 0; i < 10000; i++) {
+      assertThat(set.contains(i * 7), is(true));
+      assertThat(set.add(i * 7), is(false));
+    }
+    assertThat(set.contains(3), is(false));
+    assertThat(set.size(), is(10000));
+  }
+
+  @Test
+  public void testClear() {
+    LongHashSet set = new LongHashSet();
+    set.add(0);
+    set.add(42);
+    set.clear();
+    assertThat(set.isEmpty(), is(true));
+    assertThat(set.contains(0), is(false));
+    assertThat(set.contains(42), is(false));
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @since 0.5
+ */
+public class MantisBenchmarkTest {
+
+  @Test
+  public void testSyntheticMatrix() throws Exception {
+    Map<String, String> options = new HashMap<String, String>();
+    options.put("issues", "500");
+    options.put("pageSizes", "50,100");
+    options.put("runs", "1");
+    options.put("warmup", "0");
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    List<MantisBenchmark.Result> results = new MantisBenchmark(options).run(new PrintStream(report, true));
+    assertThat(results.size(), is(2));
+    assertThat(results.get(0).getIssues(), is(500));
+    assertThat(results.get(1).getIssues(), is(500));
+    assertThat(results.get(0).getViolations(), greaterThan(0));
+    assertThat(results.get(1).getRoundTrips(), lessThan(results.get(0).getRoundTrips()));
+    assertThat(results.get(0).getBytes(), is(-1L));
+    assertThat(report.toString(), containsString("synthetic"));
+  }
+
+  @Test
+  public void testStubServerThroughRelay() throws Exception {
+    StubMantisServer server = new StubMantisServer(120).start();
+    try {
+      Map<String, String> options = new HashMap<String, String>();
+      options.put("url", server.getUrl());
+      options.put("login", "jer");
+      options.put("password", "pwd");
+      options.put("project", "myproject");
+      options.put("runs", "1");
+      options.put("warmup", "0");
+      List<MantisBenchmark.Result> results = new MantisBenchmark(options).run(new PrintStream(new ByteArrayOutputStream(), true));
+      assertThat(results.size(), is(1));
+      assertThat(results.get(0).getIssues(), is(120));
+      assertThat(results.get(0).getRoundTrips(), greaterThan(2L));
+      assertThat(results.get(0).getBytes(), greaterThan(0L));
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testTunnelThroughRelay() throws Exception {
+    StubMantisServer server = new StubMantisServer(120).start();
+    ByteCountingRelay relay = new ByteCountingRelay();
+    Socket socket = new Socket("127.0.0.1", relay.getLocalPort());
+    try {
+      int port = new URL(server.getUrl()).getPort();
+      OutputStream out = socket.getOutputStream();
+      InputStream in = socket.getInputStream();
+      out.write(("CONNECT localhost:" + port + " HTTP/1.0\nUser-Agent: test\r\n\r\n").getBytes("US-ASCII"));
+      out.flush();
+      assertThat(readHeaders(in), containsString("200 Connection established"));
+      out.write("GET /mantis/api/rest/projects HTTP/1.0\r\nAuthorization: secret\r\n\r\n".getBytes("US-ASCII"));
+      out.flush();
+      ByteArrayOutputStream answer = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        answer.write(buffer, 0, read);
+      }
+      assertThat(answer.toString("UTF-8"), containsString("myproject"));
+      // the CONNECT exchange is not part of the count
+      assertThat(relay.takeBytes(), is((long) answer.size() + 65));
+    } finally {
+      socket.close();
+      relay.close();
+      server.stop();
+    }
+  }
+
+  private static String readHeaders(InputStream in) throws IOException {
+    StringBuilder headers = new StringBuilder();
+    while (!headers.toString().endsWith("\r\n\r\n")) {
+      headers.append((char) in.read());
+    }
+    return headers.toString();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownOption() {
+    Map<String, String> options = new HashMap<String, String>();
+    options.put("pagesize", "50");
+    new MantisBenchmark(options);
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.rmi.RemoteException;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.mantis.soap.MantisConnectStubs;
+import org.sonar.plugins.mantis.soap.MantisSoapService;
+
+import biz.futureware.mantis.rpc.soap.client.MantisConnectLocator;
+import biz.futureware.mantis.rpc.soap.client.MantisConnectPortType;
+
+/**
+ * The recording tests only run on a JVM with Java Flight Recorder, which is used through reflection as in
+ * {@link MantisEvents}.
+ *
+ * @since 0.5
+ */
+public class MantisEventsTest {
+
+  private static final String SOAP_CALL = "org.sonar.plugins.mantis.SoapCall";
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void testNoEventWhenNotRecording() {
+    // no flight recording runs during the tests, with or without JFR in the JVM
+    Object event = MantisEvents.SOAP_CALL.begin();
+    assertThat(event, nullValue());
+    MantisEvents.SOAP_CALL.commit(event, "mc_version", 0, 0, 1, false);
+  }
+
+  @Test
+  public void testEventWhenRecording() throws Exception {
+    assumeTrue(MantisEvents.SOAP_CALL.isAvailable());
+    Object recording = startRecording(SOAP_CALL);
+    Object event = MantisEvents.SOAP_CALL.begin();
+    assertThat(event, notNullValue());
+    MantisEvents.SOAP_CALL.commit(event, "mc_filter_get_issues", 3, 50, 42, false);
+    List<?> events = stopRecording(recording);
+
+    assertThat(events.size(), is(1));
+    assertThat(value(events.get(0), "method"), is((Object) "mc_filter_get_issues"));
+    assertThat(value(events.get(0), "page"), is((Object) 3));
+    assertThat(value(events.get(0), "count"), is((Object) 50));
+    assertThat(value(events.get(0), "size"), is((Object) 42));
+    assertThat(value(events.get(0), "failed"), is((Object) false));
+  }
+
+  @Test
+  public void testFailedSoapCallIsRecorded() throws Exception {
+    assumeTrue(MantisEvents.SOAP_CALL.isAvailable());
+    MantisConnectLocator locator = mock(MantisConnectLocator.class);
+    MantisConnectPortType portType = mock(MantisConnectPortType.class);
+    when(locator.getMantisConnectPort()).thenReturn(portType);
+    when(portType.mc_issue_get(null, null, BigInteger.TEN)).thenThrow(new RemoteException("Read timed out"));
+    MantisSoapService service = new MantisSoapService(null, null, new MantisConnectStubs(locator));
+
+    Object recording = startRecording(SOAP_CALL);
+    try {
+      service.getIssue(BigInteger.TEN);
+      fail();
+    } catch (RemoteException e) {
+      // recorded
+    }
+    List<?> events = stopRecording(recording);
+
+    assertThat(events.size(), is(1));
+    assertThat(value(events.get(0), "method"), is((Object) "mc_issue_get"));
+    assertThat(value(events.get(0), "size"), is((Object) 0));
+    assertThat(value(events.get(0), "failed"), is((Object) true));
+  }
+
+  private static Object startRecording(String eventName) throws Exception {
+    Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+    Object recording = recordingClass.newInstance();
+    recordingClass.getMethod("enable", String.class).invoke(recording, eventName);
+    recordingClass.getMethod("start").invoke(recording);
+    return recording;
+  }
+
+  /**
+   * @return the events of the recording, read back from a dump
+   */
+  private List<?> stopRecording(Object recording) throws Exception {
+    Class<?> recordingClass = recording.getClass();
+    Class<?> pathClass = Class.forName("java.nio.file.Path");
+    try {
+      recordingClass.getMethod("stop").invoke(recording);
+      Object path = File.class.getMethod("toPath").invoke(temp.newFile("mantis.jfr"));
+      recordingClass.getMethod("dump", pathClass).invoke(recording, path);
+      return (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", pathClass).invoke(null, path);
+    } finally {
+      recordingClass.getMethod("close").invoke(recording);
+    }
+  }
+
+  private static Object value(Object recordedEvent, String field) throws Exception {
+    Method getValue = Class.forName("jdk.jfr.consumer.RecordedObject").getMethod("getValue", String.class);
+    return getValue.invoke(recordedEvent, field);
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @since 0.5
+ */
+public class MantisHistoryTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void testOpenIds() throws Exception {
+    MantisHistory history = new MantisHistory(temp.newFolder("ids"));
+    assertThat(history.readOpenIds(), nullValue());
+    history.writeOpenIds(new long[] {3, 5, 8, 13}, 3);
+    assertThat(history.readOpenIds(), is(new long[] {3, 5, 8}));
+    history.writeOpenIds(new long[] {21}, 1);
+    assertThat(history.readOpenIds(), is(new long[] {21}));
+  }
+
+  @Test
+  public void testAppendAndFind() throws Exception {
+    MantisHistory history = new MantisHistory(temp.newFolder("series"));
+    int[] buckets = new int[MantisHistory.AGE_LIMITS.length];
+    history.append(100, 0, 0, buckets);
+    history.append(110, 5, 2, buckets);
+    history.append(110, 1, 1, buckets);
+    MantisHistory.Record last = history.append(140, 4, 3, buckets);
+
+    assertThat(last.getCumulatedOpened(), is(10L));
+    assertThat(last.getCumulatedClosed(), is(6L));
+    assertThat(history.find(99), nullValue());
+    assertThat(history.find(100).getDay(), is(100));
+    MantisHistory.Record sameDay = history.find(125);
+    assertThat(sameDay.getDay(), is(110));
+    assertThat(sameDay.getOpened(), is(6));
+    assertThat(sameDay.getClosed(), is(3));
+    assertThat(history.find(200).getDay(), is(140));
+  }
+}
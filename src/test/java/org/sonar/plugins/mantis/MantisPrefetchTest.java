@@ -0,0 +1,99 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.sonar.api.utils.SonarException;
+
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+
+public class MantisPrefetchTest {
+
+  private static final FetchedIssues FETCHED = new FetchedIssues(BigInteger.ONE, new IssueData[0]);
+
+  @Test
+  public void testTakeWithoutFetch() {
+    assertThat(new MantisPrefetch().take("myproject"), nullValue());
+  }
+
+  @Test
+  public void testTakeOnlyOnce() {
+    MantisPrefetch prefetch = new MantisPrefetch();
+    prefetch.start("myproject", new Callable<FetchedIssues>() {
+      public FetchedIssues call() {
+        return FETCHED;
+      }
+    });
+    assertThat(prefetch.take("myproject"), sameInstance(FETCHED));
+    assertThat(prefetch.take("myproject"), nullValue());
+    prefetch.stop();
+  }
+
+  @Test
+  public void testFailureIsRethrown() {
+    MantisPrefetch prefetch = new MantisPrefetch();
+    prefetch.start("myproject", new Callable<FetchedIssues>() {
+      public FetchedIssues call() {
+        throw new SonarException("Unable to find filter 'current-version' in Mantis");
+      }
+    });
+    try {
+      prefetch.take("myproject");
+      fail();
+    } catch (SonarException e) {
+      assertThat(e.getMessage(), is("Unable to find filter 'current-version' in Mantis"));
+    }
+    prefetch.stop();
+  }
+
+  @Test
+  public void testStopCancelsRunningFetch() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    MantisPrefetch prefetch = new MantisPrefetch();
+    prefetch.start("myproject", new Callable<FetchedIssues>() {
+      public FetchedIssues call() {
+        started.countDown();
+        try {
+          Thread.sleep(60000);
+        } catch (InterruptedException e) {
+          interrupted.countDown();
+        }
+        return FETCHED;
+      }
+    });
+    assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+    prefetch.stop();
+    assertThat(interrupted.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(prefetch.take("myproject"), nullValue());
+  }
+}
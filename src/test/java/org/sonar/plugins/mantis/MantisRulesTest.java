@@ -0,0 +1,154 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.math.BigInteger;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.profiles.RulesProfile;
+import org.sonar.api.rules.Rule;
+import org.sonar.api.rules.RulePriority;
+import org.sonar.api.utils.SonarException;
+
+import biz.futureware.mantis.rpc.soap.client.AccountData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+import biz.futureware.mantis.rpc.soap.client.IssueNoteData;
+import biz.futureware.mantis.rpc.soap.client.ObjectRef;
+
+public class MantisRulesTest {
+
+  private static final long DAY = 24 * 3600 * 1000L;
+
+  private final Date now = new Date();
+  private final AccountData reporter = new AccountData(BigInteger.valueOf(99), "customer", "customer", "customer@example.com");
+  private final AccountData developer = new AccountData(BigInteger.ONE, "jer", "jer", "jer@example.com");
+  private MantisRules rules;
+
+  @Before
+  public void setUp() {
+    RulesProfile profile = RulesProfile.create("test profile", "c++");
+    profile.activateRule(MantisRuleRepository.UNANSWERED_TICKET, RulePriority.MAJOR).setParameter("age", "7");
+    rules = new MantisRules(profile);
+  }
+
+  private IssueData issue(int submittedDaysAgo, int status) {
+    IssueData issue = new IssueData();
+    issue.setId(BigInteger.valueOf(12));
+    issue.setStatus(new ObjectRef(BigInteger.valueOf(status), "status"));
+    issue.setReporter(reporter);
+    issue.setHandler(developer);
+    issue.setDate_submitted(daysAgo(submittedDaysAgo));
+    issue.setLast_updated(daysAgo(0));
+    return issue;
+  }
+
+  private IssueNoteData note(AccountData author, int daysAgo) {
+    IssueNoteData note = new IssueNoteData();
+    note.setReporter(author);
+    note.setDate_submitted(daysAgo(daysAgo));
+    return note;
+  }
+
+  private Calendar daysAgo(int days) {
+    Calendar date = Calendar.getInstance();
+    date.setTimeInMillis(now.getTime() - days * DAY);
+    return date;
+  }
+
+  @Test
+  public void testNotesOnlyNeededForCandidates() {
+    assertThat(rules.needsNotes(issue(10, 50), now), is(true));
+    // too recent to be unanswered
+    assertThat(rules.needsNotes(issue(3, 50), now), is(false));
+    // resolved
+    assertThat(rules.needsNotes(issue(10, 80), now), is(false));
+    // already read
+    IssueData withNotes = issue(10, 50);
+    withNotes.setNotes(new IssueNoteData[0]);
+    assertThat(rules.needsNotes(withNotes, now), is(false));
+    // already violating a cheaper rule
+    assertThat(rules.needsNotes(issue(365, 50), now), is(false));
+  }
+
+  @Test
+  public void testNotesNotNeededWhenRuleInactive() {
+    MantisRules inactive = new MantisRules(RulesProfile.create("test profile", "c++"));
+    assertThat(inactive.needsNotes(issue(10, 50), now), is(false));
+    assertThat(inactive.checkNotes(issue(10, 50), null, now), nullValue());
+  }
+
+  @Test
+  public void testExpressionRules() {
+    RulesProfile profile = RulesProfile.create("test profile", "c++");
+    Rule urgent = Rule.create(MantisRuleRepository.REPOSITORY_KEY, "urgent-new", "Urgent new ticket");
+    urgent.setParent(MantisRuleRepository.EXPRESSION_TICKET);
+    urgent.createParameter("expression");
+    profile.activateRule(urgent, RulePriority.CRITICAL).setParameter("expression", "priority >= urgent && status == new && age > 3");
+    Rule closedUnresolved = Rule.create(MantisRuleRepository.REPOSITORY_KEY, "closed-unresolved", "Closed without resolution");
+    closedUnresolved.setParent(MantisRuleRepository.EXPRESSION_TICKET);
+    closedUnresolved.createParameter("expression");
+    profile.activateRule(closedUnresolved, RulePriority.MINOR).setParameter("expression", "status == closed && resolution == open");
+    MantisRules expressionRules = new MantisRules(profile);
+
+    IssueData issue = issue(10, 10);
+    issue.setStatus(new ObjectRef(BigInteger.valueOf(10), "new"));
+    issue.setPriority(new ObjectRef(BigInteger.valueOf(60), "immediate"));
+    assertThat(expressionRules.check(issue, now), is(urgent));
+    issue.setPriority(new ObjectRef(BigInteger.valueOf(40), "high"));
+    assertThat(expressionRules.check(issue, now), nullValue());
+
+    issue = issue(10, 90);
+    issue.setStatus(new ObjectRef(BigInteger.valueOf(90), "closed"));
+    issue.setResolution(new ObjectRef(BigInteger.valueOf(10), "open"));
+    assertThat(expressionRules.check(issue, now), is(closedUnresolved));
+  }
+
+  @Test(expected = SonarException.class)
+  public void testInvalidExpressionRule() {
+    RulesProfile profile = RulesProfile.create("test profile", "c++");
+    profile.activateRule(MantisRuleRepository.EXPRESSION_TICKET, RulePriority.MAJOR).setParameter("expression", "priority >> high");
+    new MantisRules(profile);
+  }
+
+  @Test
+  public void testUnansweredTicket() {
+    IssueData issue = issue(30, 50);
+    IssueData details = issue(30, 50);
+    details.setNotes(new IssueNoteData[] {note(developer, 20), note(reporter, 10)});
+    assertThat(rules.checkNotes(issue, details, now), is(MantisRuleRepository.UNANSWERED_TICKET));
+
+    details.setNotes(new IssueNoteData[] {note(reporter, 10), note(developer, 9)});
+    assertThat(rules.checkNotes(issue, details, now), nullValue());
+
+    details.setNotes(new IssueNoteData[] {note(developer, 20), note(reporter, 2)});
+    assertThat(rules.checkNotes(issue, details, now), nullValue());
+
+    // details not read
+    assertThat(rules.checkNotes(issue, null, now), nullValue());
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.config.Settings;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.profiles.RulesProfile;
+import org.sonar.api.resources.Project;
+import org.sonar.plugins.mantis.soap.MantisConnectStubs;
+import org.sonar.plugins.mantis.soap.MantisSoapService;
+
+import biz.futureware.mantis.rpc.soap.client.MantisConnectLocator;
+import biz.futureware.mantis.rpc.soap.client.MantisConnectPortType;
+
+/**
+ * @since 0.5
+ */
+public class MantisSensorConcurrencyTest {
+
+  private static final int PROJECTS = 8;
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void testConcurrentAnalysesWithOneSensor() throws Exception {
+    final Map<String, IssueGenerator> generators = new ConcurrentHashMap<String, IssueGenerator>();
+    for (int i = 0; i < PROJECTS; i++) {
+      generators.put("project" + i, new IssueGenerator(500 * (i + 1)));
+    }
+    final MantisSensor sensor = new MantisSensor(new Settings(), RulesProfile.create("test profile", "java")) {
+      @Override
+      protected MantisSoapService createMantisSoapService(final MantisConfiguration configuration) throws RemoteException {
+        return new MantisSoapService(null, null, new MantisConnectStubs(new MantisConnectLocator() {
+          @Override
+          public MantisConnectPortType getMantisConnectPort() {
+            return generators.get(configuration.getProjectName()).portType();
+          }
+        }));
+      }
+    };
+
+    final Map<String, Measure> issues = new ConcurrentHashMap<String, Measure>();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(PROJECTS);
+    for (int i = 0; i < PROJECTS; i++) {
+      final String name = "project" + i;
+      final MantisConfiguration configuration = MantisConfiguration.create(new Settings()
+          .setProperty(MantisPlugin.SERVER_URL_PROPERTY, "http://localhost:1234/mantis/")
+          .setProperty(MantisPlugin.USERNAME_PROPERTY, "jer")
+          .setProperty(MantisPlugin.PASSWORD_PROPERTY, "pwd")
+          .setProperty(MantisPlugin.PROJECTNAME_PROPERTY, name)
+          .setProperty(MantisPlugin.FILTER_PROPERTY, "current-version")
+          .setProperty(MantisPlugin.HISTORY_DIR_PROPERTY, temp.getRoot().getAbsolutePath()));
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            sensor.analyse(new Project(name), recordingContext(name, issues), configuration);
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    start.countDown();
+    done.await();
+
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+    for (int i = 0; i < PROJECTS; i++) {
+      assertThat(issues.get("project" + i).getIntValue(), is(500 * (i + 1)));
+    }
+  }
+
+  private static SensorContext recordingContext(final String project, final Map<String, Measure> issues) {
+    return (SensorContext) Proxy.newProxyInstance(SensorContext.class.getClassLoader(), new Class<?>[] {SensorContext.class},
+        new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("saveMeasure".equals(method.getName()) && args.length == 1) {
+              Measure measure = (Measure) args[0];
+              if (MantisMetrics.ISSUES.equals(measure.getMetric())) {
+                issues.put(project, measure);
+              }
+              return measure;
+            }
+            return method.getReturnType() == boolean.class ? Boolean.TRUE : null;
+          }
+        });
+  }
+}
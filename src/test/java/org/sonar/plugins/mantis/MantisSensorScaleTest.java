@@ -0,0 +1,173 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.config.Settings;
+import org.sonar.api.profiles.RulesProfile;
+import org.sonar.api.resources.Project;
+import org.sonar.plugins.mantis.soap.MantisConnectStubs;
+import org.sonar.plugins.mantis.soap.MantisSoapService;
+
+import biz.futureware.mantis.rpc.soap.client.MantisConnectLocator;
+
+/**
+ * Runs the sensor over generated backlogs and fails when the bytes allocated per issue go over budget, or when the
+ * time per issue grows with the size of the backlog. The allocations of the generation of the issues themselves are
+ * measured separately and subtracted. The 100k and 1M issues backlogs, and the budget of time per issue which depends
+ * on the machine, only run with <code>-Dmantis.scale.full=true</code>.
+ *
+ * @since 0.5
+ */
+public class MantisSensorScaleTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MantisSensorScaleTest.class);
+
+  private static final long MAX_BYTES_PER_ISSUE = 1536;
+  private static final long MAX_NANOS_PER_ISSUE = 20 * 1000;
+  private static final long MAX_SCALING = 3;
+  private static final int PAGE_SIZE = 50;
+  private static final boolean FULL = Boolean.getBoolean("mantis.scale.full");
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private com.sun.management.ThreadMXBean threads;
+
+  @Before
+  public void setUp() throws Exception {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+    // warm up
+    analyse(new IssueGenerator(1000));
+  }
+
+  @Test
+  public void test10kIssues() throws Exception {
+    assertBudget(10000);
+  }
+
+  @Test
+  public void test100kIssues() throws Exception {
+    assumeTrue(FULL);
+    assertBudget(100000);
+  }
+
+  @Test
+  public void test1MIssues() throws Exception {
+    assumeTrue(FULL);
+    assertBudget(1000000);
+  }
+
+  @Test
+  public void testTimePerIssueDoesNotGrowWithTheBacklog() throws Exception {
+    long small = bestNanosPerIssue(2000);
+    long large = bestNanosPerIssue(20000);
+    LOG.info("{} ns per issue for 2k issues, {} ns per issue for 20k issues", small, large);
+    assertThat(large, lessThan(MAX_SCALING * small));
+  }
+
+  private long bestNanosPerIssue(int issues) throws Exception {
+    IssueGenerator generator = new IssueGenerator(issues);
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < 3; i++) {
+      long start = System.nanoTime();
+      analyse(generator);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best / issues;
+  }
+
+  private void assertBudget(int issues) throws Exception {
+    IssueGenerator generator = new IssueGenerator(issues);
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    for (int page = 1; page <= (issues + PAGE_SIZE - 1) / PAGE_SIZE; page++) {
+      generator.page(page, PAGE_SIZE);
+    }
+    long generation = threads.getThreadAllocatedBytes(threadId) - before;
+
+    before = threads.getThreadAllocatedBytes(threadId);
+    long start = System.nanoTime();
+    analyse(generator);
+    long nanos = System.nanoTime() - start;
+    long bytes = threads.getThreadAllocatedBytes(threadId) - before - generation;
+
+    LOG.info("{} issues: {} bytes and {} ns per issue", new Object[] {issues, bytes / issues, nanos / issues});
+    assertThat(bytes / issues, lessThan(MAX_BYTES_PER_ISSUE));
+    if (FULL) {
+      assertThat(nanos / issues, lessThan(MAX_NANOS_PER_ISSUE));
+    }
+  }
+
+  private void analyse(final IssueGenerator generator) throws Exception {
+    Settings settings = new Settings()
+        .setProperty(MantisPlugin.SERVER_URL_PROPERTY, "http://localhost:1234/mantis/")
+        .setProperty(MantisPlugin.USERNAME_PROPERTY, "jer")
+        .setProperty(MantisPlugin.PASSWORD_PROPERTY, "pwd")
+        .setProperty(MantisPlugin.PROJECTNAME_PROPERTY, "myproject")
+        .setProperty(MantisPlugin.FILTER_PROPERTY, "current-version")
+        .setProperty(MantisPlugin.DEVELOPERS_MAX_PROPERTY, "20")
+        .setProperty(MantisPlugin.HISTORY_DIR_PROPERTY, temp.getRoot().getAbsolutePath());
+    MantisSensor sensor = new MantisSensor(settings, RulesProfile.create("test profile", "java")) {
+      @Override
+      protected MantisSoapService createMantisSoapService(MantisConfiguration configuration) throws RemoteException {
+        MantisConnectLocator locator = mock(MantisConnectLocator.class);
+        try {
+          when(locator.getMantisConnectPort()).thenReturn(generator.portType());
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+        return new MantisSoapService(null, null, new MantisConnectStubs(locator));
+      }
+    };
+    sensor.analyse(mock(Project.class), nullContext());
+  }
+
+  private static SensorContext nullContext() {
+    return (SensorContext) Proxy.newProxyInstance(SensorContext.class.getClassLoader(), new Class<?>[] {SensorContext.class},
+        new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return method.getReturnType() == boolean.class ? Boolean.TRUE : null;
+          }
+        });
+  }
+}
@@ -21,7 +21,9 @@
 package org.sonar.plugins.mantis;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -30,10 +32,13 @@ import java.math.BigInteger;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.internal.stubbing.answers.CallsRealMethods;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.config.Settings;
@@ -43,7 +48,10 @@ import org.sonar.api.profiles.RulesProfile;
 import org.sonar.api.profiles.RulesProfileTest;
 import org.sonar.api.resources.Project;
 import org.sonar.api.resources.Resource;
+import org.sonar.api.rules.RulePriority;
 import org.sonar.api.rules.Violation;
+import org.sonar.api.utils.SonarException;
+import org.sonar.plugins.mantis.soap.MantisConnectStubs;
 import org.sonar.plugins.mantis.soap.MantisSoapService;
 
 import biz.futureware.mantis.rpc.soap.client.AccountData;
@@ -62,56 +70,51 @@ import com.google.common.collect.Multimap;
  */
 public class MantisSensorTest {
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   private MantisSensor sensor;
+  private Settings settings;
 
   @Before
   public void setUp() throws Exception {
-    final MantisSoapService service = new MantisSoapService(null) {
+    MantisConnectLocator locator = mock(MantisConnectLocator.class);
+    MantisConnectPortType portType = mock(MantisConnectPortType.class);
+    String[] status = new String[] {"new", "feedback", "acknowledged", "confirmed", "assigned", "resolved", "validated", "closed"};
+    String[] priorities = new String[] {"low", "normal", "high", "urgent", "immediate"};
+    String[] users = new String[] {"user1", "user2", "user3", "user4", "user5", "user6", "user7", "user8", "user9", "user10",
+      "user11", "user12", "user13", "user14", "user15", "user16", "user17", "user18", "user19", "user20"};
 
-      @Override
-      protected MantisConnectLocator createMantisConnectLocator() {
-        MantisConnectLocator locator = mock(MantisConnectLocator.class);
-        MantisConnectPortType portType = mock(MantisConnectPortType.class);
-        String[] status = new String[] {"new", "feedback", "acknowledged", "confirmed", "assigned", "resolved", "validated", "closed"};
-        String[] priorities = new String[] {"low", "normal", "high", "urgent", "immediate"};
-        String[] users = new String[] {"user1", "user2", "user3", "user4", "user5", "user6", "user7", "user8", "user9", "user10",
-          "user11", "user12", "user13", "user14", "user15", "user16", "user17", "user18", "user19", "user20"};
-
-        try {
-          List<IssueData> issues = new ArrayList<IssueData>();
-          for (int i = 0; i < 1000; i++) {
-            IssueData issue = new IssueData();
-            issue.setId(BigInteger.valueOf(i + 1));
-            issue.setPriority(new ObjectRef(BigInteger.valueOf(i % 5), priorities[i % 5]));
-            issue.setStatus(new ObjectRef(BigInteger.valueOf(i % 8), status[i % 8]));
-            issue.setHandler(new AccountData(BigInteger.valueOf(i % 20), users[i % 20], users[i % 20], users[i % 20] + "@gmail.com"));
-            issue.setDate_submitted(Calendar.getInstance());
-            issue.setLast_updated(Calendar.getInstance());
-            issues.add(issue);
-          }
-          FilterData filter = new FilterData(BigInteger.ONE, null, BigInteger.ONE, true, "current-version", "", "");
-          when(locator.getMantisConnectPort()).thenReturn(portType);
-          when(portType.mc_project_get_id_from_name("jer", "pwd", "myproject")).thenReturn(BigInteger.ONE);
-          when(portType.mc_filter_get("jer", "pwd", BigInteger.ONE)).thenReturn(new FilterData[] {filter});
-          when(portType.mc_filter_get_issues("jer", "pwd", BigInteger.ONE, filter.getId(), BigInteger.ONE, BigInteger.valueOf(50)))
-              .thenReturn((IssueData[]) issues.toArray(new IssueData[issues.size()]));
-        } catch (Exception e) {
-          fail();
-        }
-        return locator;
-      }
-    };
+    List<IssueData> issues = new ArrayList<IssueData>();
+    for (int i = 0; i < 1000; i++) {
+      IssueData issue = new IssueData();
+      issue.setId(BigInteger.valueOf(i + 1));
+      issue.setPriority(new ObjectRef(BigInteger.valueOf(i % 5), priorities[i % 5]));
+      issue.setStatus(new ObjectRef(BigInteger.valueOf(i % 8), status[i % 8]));
+      issue.setHandler(new AccountData(BigInteger.valueOf(i % 20), users[i % 20], users[i % 20], users[i % 20] + "@gmail.com"));
+      issue.setDate_submitted(Calendar.getInstance());
+      issue.setLast_updated(Calendar.getInstance());
+      issues.add(issue);
+    }
+    FilterData filter = new FilterData(BigInteger.ONE, null, BigInteger.ONE, true, "current-version", "", "");
+    when(locator.getMantisConnectPort()).thenReturn(portType);
+    when(portType.mc_project_get_id_from_name("jer", "pwd", "myproject")).thenReturn(BigInteger.ONE);
+    when(portType.mc_filter_get("jer", "pwd", BigInteger.ONE)).thenReturn(new FilterData[] {filter});
+    when(portType.mc_filter_get_issues("jer", "pwd", BigInteger.ONE, filter.getId(), BigInteger.ONE, BigInteger.valueOf(50)))
+        .thenReturn((IssueData[]) issues.toArray(new IssueData[issues.size()]));
+    final MantisSoapService service = new MantisSoapService(null, null, new MantisConnectStubs(locator));
 
-    Settings settings = new Settings()
+    settings = new Settings()
         .setProperty(MantisPlugin.SERVER_URL_PROPERTY, "http://localhost:1234/mantis/")
         .setProperty(MantisPlugin.USERNAME_PROPERTY, "jer")
         .setProperty(MantisPlugin.PASSWORD_PROPERTY, "pwd")
         .setProperty(MantisPlugin.PROJECTNAME_PROPERTY, "myproject")
-        .setProperty(MantisPlugin.FILTER_PROPERTY, "current-version");
+        .setProperty(MantisPlugin.FILTER_PROPERTY, "current-version")
+        .setProperty(MantisPlugin.HISTORY_DIR_PROPERTY, temp.getRoot().getAbsolutePath());
     RulesProfile rulesProfile = RulesProfile.create("test profile", "c++");
     sensor = new MantisSensor(settings, rulesProfile) {
 
-      protected MantisSoapService createMantisSoapService() throws RemoteException {
+      protected MantisSoapService createMantisSoapService(MantisConfiguration configuration) throws RemoteException {
         return service;
       }
     };
@@ -130,6 +133,195 @@ public class MantisSensorTest {
     assertThat(
         context.getMeasure(MantisMetrics.DEVELOPERS).getData(),
         is("user1=50;user10=50;user11=50;user12=50;user13=50;user14=50;user15=50;user16=50;user17=50;user18=50;user19=50;user2=50;user20=50;user3=50;user4=50;user5=50;user6=50;user7=50;user8=50;user9=50"));
+    assertThat(context.getMeasure(MantisMetrics.OPENED_ISSUES).getIntValue(), is(0));
+    assertThat(context.getMeasure(MantisMetrics.OPEN_ISSUES_AGE).getValue(), is(Double.valueOf(1000)));
+  }
+
+  @Test
+  public void testAnalyseWithTopDevelopers() {
+    settings.setProperty(MantisPlugin.DEVELOPERS_MAX_PROPERTY, "5");
+    SensorContext context = mock(MockSensorContext.class, new CallsRealMethods());
+    sensor.analyse(mock(Project.class), context);
+    assertThat(context.getMeasure(MantisMetrics.DEVELOPERS).getValue(), is(Double.valueOf(1000)));
+    assertThat(context.getMeasure(MantisMetrics.DEVELOPERS).getData(), is("(others)=750;user1=50;user10=50;user11=50;user12=50;user13=50"));
+  }
+
+  @Test
+  public void testAnalyseWithMoreDevelopersThanMonitored() {
+    settings.setProperty(MantisPlugin.DEVELOPERS_MAX_PROPERTY, "2");
+    // 500 occasional developers evict each other from the 8 monitored ones before the heavy hitters show up
+    List<IssueData> issues = new ArrayList<IssueData>();
+    for (int i = 0; i < 500; i++) {
+      issues.add(assignedIssue(i, "occasional" + i));
+    }
+    for (int i = 0; i < 300; i++) {
+      issues.add(assignedIssue(500 + i, "jer"));
+    }
+    for (int i = 0; i < 200; i++) {
+      issues.add(assignedIssue(800 + i, "bob"));
+    }
+    SensorContext context = mock(MockSensorContext.class, new CallsRealMethods());
+    MantisConfiguration configuration = MantisConfiguration.create(settings);
+    sensor.analyze(mock(Project.class), context, configuration, new MantisRules(RulesProfile.create("test profile", "c++")),
+        new FetchedIssues(BigInteger.ONE, issues.toArray(new IssueData[issues.size()])));
+    assertThat(context.getMeasure(MantisMetrics.DEVELOPERS).getValue(), is(Double.valueOf(1000)));
+    assertThat(context.getMeasure(MantisMetrics.DEVELOPERS).getData(), is("(others)=500;bob=200;jer=300"));
+  }
+
+  private static IssueData assignedIssue(int id, String developer) {
+    IssueData issue = new IssueData();
+    issue.setId(BigInteger.valueOf(id + 1));
+    issue.setPriority(new ObjectRef(BigInteger.ONE, "low"));
+    issue.setStatus(new ObjectRef(BigInteger.ONE, "new"));
+    issue.setHandler(new AccountData(BigInteger.valueOf(id), developer, developer, developer + "@gmail.com"));
+    issue.setDate_submitted(Calendar.getInstance());
+    issue.setLast_updated(Calendar.getInstance());
+    return issue;
+  }
+
+  @Test
+  public void testAnalyseWithViews() {
+    settings.setProperty(MantisPlugin.VIEWS_PROPERTY, "urgent,open,user1");
+    settings.setProperty(MantisPlugin.VIEW_PROPERTY_PREFIX + "urgent", "priority == urgent || priority == 4");
+    settings.setProperty(MantisPlugin.VIEW_PROPERTY_PREFIX + "open", "!(status == resolved || status == closed)");
+    settings.setProperty(MantisPlugin.VIEW_PROPERTY_PREFIX + "user1", "handler == 'USER1' && status == new");
+    SensorContext context = mock(MockSensorContext.class, new CallsRealMethods());
+    sensor.analyse(mock(Project.class), context);
+    assertThat(context.getMeasure(MantisMetrics.VIEWS).getValue(), is(Double.valueOf(1000)));
+    assertThat(context.getMeasure(MantisMetrics.VIEWS).getData(), is("open=750;urgent=400;user1=25"));
+  }
+
+  @Test(expected = SonarException.class)
+  public void testAnalyseWithInvalidView() {
+    settings.setProperty(MantisPlugin.VIEWS_PROPERTY, "broken");
+    settings.setProperty(MantisPlugin.VIEW_PROPERTY_PREFIX + "broken", "priority === urgent");
+    sensor.analyse(mock(Project.class), mock(SensorContext.class));
+  }
+
+  @Test
+  public void testRulesAreReadAtEachAnalysis() {
+    RulesProfile profile = RulesProfile.create("test profile", "c++");
+    profile.activateRule(MantisRuleRepository.EXPRESSION_TICKET, RulePriority.MAJOR).setParameter("expression", "priority >> high");
+    // a broken rule fails the analysis, not the creation of the sensor
+    MantisSensor brokenSensor = new MantisSensor(settings, profile);
+    try {
+      brokenSensor.analyse(mock(Project.class), mock(SensorContext.class));
+      fail();
+    } catch (SonarException e) {
+      assertThat(e.getMessage(), containsString("priority >> high"));
+    }
+  }
+
+  @Test
+  public void testNotesAreReadAtTheAnalysisDate() throws Exception {
+    RulesProfile profile = RulesProfile.create("test profile", "c++");
+    profile.activateRule(MantisRuleRepository.UNANSWERED_TICKET, RulePriority.MAJOR).setParameter("age", "7");
+    MantisRules rules = new MantisRules(profile);
+    IssueData issue = new IssueData();
+    issue.setId(BigInteger.valueOf(12));
+    issue.setStatus(new ObjectRef(BigInteger.valueOf(10), "new"));
+    issue.setReporter(new AccountData(BigInteger.valueOf(99), "customer", "customer", "customer@example.com"));
+    issue.setHandler(new AccountData(BigInteger.ONE, "jer", "jer", "jer@example.com"));
+    issue.setDate_submitted(Calendar.getInstance());
+    issue.setLast_updated(Calendar.getInstance());
+    IssueSource source = mock(IssueSource.class);
+    when(source.getIssue(issue.getId())).thenReturn(issue);
+    MantisConfiguration configuration = MantisConfiguration.create(settings);
+
+    assertThat(sensor.loadDetails(configuration, rules, source, new IssueData[] {issue}, new Date()).size(), is(0));
+    Date later = new Date(System.currentTimeMillis() + 10 * 24 * 3600 * 1000L);
+    assertThat(sensor.loadDetails(configuration, rules, source, new IssueData[] {issue}, later).size(), is(1));
+  }
+
+  @Test
+  public void testAnalyseWithPrefetchedIssues() throws Exception {
+    MantisPrefetch prefetch = new MantisPrefetch();
+    final MantisSoapService service = sensor.createMantisSoapService(null);
+    final int[] created = new int[1];
+    MantisSensor prefetchingSensor = new MantisSensor(settings, RulesProfile.create("test profile", "c++"), prefetch) {
+
+      protected MantisSoapService createMantisSoapService(MantisConfiguration configuration) throws RemoteException {
+        created[0]++;
+        return service;
+      }
+    };
+    Project project = new Project("myproject");
+    new MantisPrefetcher(settings, prefetchingSensor, prefetch).execute(project);
+    SensorContext context = mock(MockSensorContext.class, new CallsRealMethods());
+    prefetchingSensor.analyse(project, context);
+    prefetch.stop();
+    assertThat(created[0], is(1));
+    assertThat(context.getMeasure(MantisMetrics.ISSUES).getIntValue(), is(1000));
+  }
+
+  @Test
+  public void testPrefetchOfAnotherConfigurationIsNotUsed() throws Exception {
+    MantisPrefetch prefetch = new MantisPrefetch();
+    final MantisSoapService service = sensor.createMantisSoapService(null);
+    final int[] created = new int[1];
+    MantisSensor prefetchingSensor = new MantisSensor(settings, RulesProfile.create("test profile", "c++"), prefetch) {
+
+      protected MantisSoapService createMantisSoapService(MantisConfiguration configuration) throws RemoteException {
+        created[0]++;
+        return service;
+      }
+    };
+    Project project = new Project("myproject");
+    new MantisPrefetcher(settings, prefetchingSensor, prefetch).execute(project);
+    Settings otherSettings = new Settings().addProperties(settings.getProperties())
+        .setProperty(MantisPlugin.SERVER_URL_PROPERTY, "http://otherhost/mantis/");
+    SensorContext context = mock(MockSensorContext.class, new CallsRealMethods());
+    prefetchingSensor.analyse(project, context, MantisConfiguration.create(otherSettings));
+    prefetch.stop();
+    assertThat(created[0], is(2));
+    assertThat(context.getMeasure(MantisMetrics.ISSUES).getIntValue(), is(1000));
+  }
+
+  @Test
+  public void testAnalyseWithSampling() {
+    settings.setProperty(MantisPlugin.SAMPLING_BUDGET_PROPERTY, "1");
+    settings.removeProperty(MantisPlugin.FILTER_PROPERTY);
+    MantisSensor samplingSensor = new MantisSensor(settings, RulesProfile.create("test profile", "c++")) {
+
+      @Override
+      protected IssueSource createIssueSource(MantisConfiguration configuration) {
+        // 400 pages of 5 ms, more than the budget
+        return new SyntheticIssueSource(20000, 5, null);
+      }
+    };
+    SensorContext context = mock(MockSensorContext.class, new CallsRealMethods());
+    samplingSensor.analyse(mock(Project.class), context);
+    assertThat(context.getMeasure(MantisMetrics.ESTIMATED).getValue(), is(1.0));
+    assertThat(context.getMeasure(MantisMetrics.ISSUES).getIntValue(), is(20000));
+    // every page holds as many issues of each priority
+    assertThat(context.getMeasure(MantisMetrics.PRIORITIES).getData(), is("low=4000;normal=4000;high=4000;urgent=4000;immediate=4000"));
+    assertThat(context.getMeasure(MantisMetrics.STATUS).getValue(), is(Double.valueOf(20000)));
+    assertThat(context.getMeasure(MantisMetrics.ESTIMATE_BOUNDS).getData(), containsString("mantis_issues_priorities.low="));
+    assertThat(context.getMeasure(MantisMetrics.OPEN_ISSUES_AGE), nullValue());
+  }
+
+  @Test
+  public void testAnalyseWithCompleteSample() {
+    settings.setProperty(MantisPlugin.SAMPLING_BUDGET_PROPERTY, "60");
+    settings.removeProperty(MantisPlugin.FILTER_PROPERTY);
+    MantisSensor samplingSensor = new MantisSensor(settings, RulesProfile.create("test profile", "c++")) {
+
+      @Override
+      protected IssueSource createIssueSource(MantisConfiguration configuration) {
+        return new SyntheticIssueSource(120, 0, null) {
+
+          @Override
+          public IssueData[] getIssues(FilterData filter) {
+            throw new IllegalStateException("The issues were all sampled already");
+          }
+        };
+      }
+    };
+    SensorContext context = mock(MockSensorContext.class, new CallsRealMethods());
+    samplingSensor.analyse(mock(Project.class), context);
+    assertThat(context.getMeasure(MantisMetrics.ESTIMATED), nullValue());
+    assertThat(context.getMeasure(MantisMetrics.ISSUES).getIntValue(), is(120));
+    assertThat(context.getMeasure(MantisMetrics.PRIORITIES).getValue(), is(Double.valueOf(120)));
   }
 
   abstract class MockSensorContext implements SensorContext {
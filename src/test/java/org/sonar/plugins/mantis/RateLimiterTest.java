@@ -0,0 +1,110 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @since 0.5
+ */
+public class RateLimiterTest {
+
+  @Test
+  public void testLimitersAreSharedPerServer() throws Exception {
+    RateLimiter limiter = RateLimiter.get("http://localhost/mantis", 10, 2, null);
+    assertThat(RateLimiter.get("http://localhost/mantis", 10, 2, null), sameInstance(limiter));
+  }
+
+  @Test
+  public void testTokenBucketRate() throws Exception {
+    assertRate(new TokenBucketRateLimiter(20, 0));
+  }
+
+  @Test
+  public void testTokenBucketConcurrency() throws Exception {
+    assertConcurrency(new TokenBucketRateLimiter(0, 2));
+  }
+
+  @Test
+  public void testSharedFileRate() throws Exception {
+    assertRate(SharedFileRateLimiter.get(createLockFile(), 20, 0));
+  }
+
+  @Test
+  public void testSharedFileConcurrency() throws Exception {
+    assertConcurrency(SharedFileRateLimiter.get(createLockFile(), 0, 2));
+  }
+
+  private static File createLockFile() throws Exception {
+    File file = File.createTempFile("sonar-mantis", ".lock");
+    file.deleteOnExit();
+    return file;
+  }
+
+  private static void assertRate(RateLimiter limiter) throws Exception {
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < 30; i++) {
+      limiter.release(limiter.acquire());
+    }
+    // 20 requests of burst, then 10 requests at 20 per second
+    assertThat(System.currentTimeMillis() - start, greaterThanOrEqualTo(400L));
+  }
+
+  private static void assertConcurrency(final RateLimiter limiter) throws Exception {
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(6);
+    for (int i = 0; i < 6; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            int permit = limiter.acquire();
+            int current = inFlight.incrementAndGet();
+            synchronized (maxInFlight) {
+              maxInFlight.set(Math.max(maxInFlight.get(), current));
+            }
+            Thread.sleep(50);
+            inFlight.decrementAndGet();
+            limiter.release(permit);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    done.await();
+    assertThat(maxInFlight.get(), lessThanOrEqualTo(2));
+    assertThat(inFlight.get(), is(0));
+  }
+}
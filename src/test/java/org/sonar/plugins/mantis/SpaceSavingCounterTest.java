@@ -0,0 +1,69 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @since 0.5
+ */
+public class SpaceSavingCounterTest {
+
+  @Test
+  public void testExactWithinCapacity() {
+    SpaceSavingCounter counter = new SpaceSavingCounter(4);
+    for (String value : new String[] {"a", "b", "a", "c", "a", "b"}) {
+      counter.add(value);
+    }
+    assertThat(counter.getTotal(), is(6L));
+    assertThat(counter.getCount("a"), is(3L));
+    assertThat(counter.getCount("b"), is(2L));
+    assertThat(counter.getError("a"), is(0L));
+    assertThat(counter.top(2), is(Arrays.asList("a", "b")));
+  }
+
+  @Test
+  public void testHeavyHittersAmongManyValues() {
+    SpaceSavingCounter counter = new SpaceSavingCounter(20);
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      int dice = random.nextInt(100);
+      if (dice < 30) {
+        counter.add("heavy1");
+      } else if (dice < 50) {
+        counter.add("heavy2");
+      } else {
+        counter.add("user" + random.nextInt(2000));
+      }
+    }
+    assertThat(counter.top(2), is(Arrays.asList("heavy1", "heavy2")));
+    long count = counter.getCount("heavy1");
+    assertThat(count - counter.getError("heavy1"), lessThanOrEqualTo(31000L));
+    assertThat(count >= 29000L, is(true));
+  }
+}
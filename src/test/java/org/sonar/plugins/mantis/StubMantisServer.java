@@ -0,0 +1,246 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server answering the few MantisConnect SOAP operations and REST resources used by the plugin,
+ * over a generated list of issues.
+ *
+ * @since 0.5
+ */
+public class StubMantisServer {
+
+  public static final String[] PRIORITIES = {"low", "normal", "high", "urgent", "immediate"};
+  public static final String[] STATUS = {"new", "feedback", "acknowledged", "confirmed", "assigned", "resolved", "validated", "closed"};
+
+  private static final String MANTIS_NS = "http://futureware.biz/mantisconnect";
+
+  private final int issues;
+  private final AtomicInteger requests = new AtomicInteger();
+  private final Set<InetSocketAddress> restClients = Collections.synchronizedSet(new HashSet<InetSocketAddress>());
+  private volatile long restDelay;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  public StubMantisServer(int issues) {
+    this.issues = issues;
+  }
+
+  public StubMantisServer start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    // several threads, as a real server, so that concurrent clients are really served at the same time
+    executor = Executors.newFixedThreadPool(8);
+    server.setExecutor(executor);
+    server.createContext("/mantis/api/soap/mantisconnect.php", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        reply(exchange, "text/xml; charset=utf-8", soap(read(exchange.getRequestBody())));
+      }
+    });
+    server.createContext("/mantis/api/rest/", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        restClients.add(exchange.getRemoteAddress());
+        if (!"secret".equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+          exchange.sendResponseHeaders(401, -1);
+          exchange.close();
+          return;
+        }
+        if (restDelay > 0) {
+          try {
+            Thread.sleep(restDelay);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        reply(exchange, "application/json", rest(exchange.getRequestURI().getPath(), exchange.getRequestURI().getQuery()));
+      }
+    });
+    server.start();
+    return this;
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * @param millis time spent before each REST answer
+   */
+  public void setRestDelay(long millis) {
+    restDelay = millis;
+  }
+
+  public String getUrl() {
+    return "http://localhost:" + server.getAddress().getPort() + "/mantis";
+  }
+
+  public int getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * @return the number of distinct client connections which sent REST requests
+   */
+  public int getRestConnections() {
+    return restClients.size();
+  }
+
+  private String soap(String request) {
+    StringBuilder body = new StringBuilder();
+    if (request.contains("mc_project_get_issues") || request.contains("mc_filter_get_issues")) {
+      String operation = request.contains("mc_project_get_issues") ? "mc_project_get_issues" : "mc_filter_get_issues";
+      int perPage = intParam(request, "per_page");
+      int pageCount = Math.max(1, (issues + perPage - 1) / perPage);
+      int page = Math.min(intParam(request, "page_number"), pageCount);
+      int from = (page - 1) * perPage;
+      int to = Math.min(from + perPage, issues);
+      body.append("<ns1:").append(operation).append("Response>");
+      body.append("<return xsi:type=\"SOAP-ENC:Array\" SOAP-ENC:arrayType=\"ns1:IssueData[").append(to - from).append("]\">");
+      for (int i = from; i < to; i++) {
+        soapIssue(body, "item", issues - i);
+      }
+      body.append("</return></ns1:").append(operation).append("Response>");
+    } else if (request.contains("mc_issue_get")) {
+      body.append("<ns1:mc_issue_getResponse>");
+      soapIssue(body, "return", intParam(request, "issue_id"));
+      body.append("</ns1:mc_issue_getResponse>");
+    } else if (request.contains("mc_project_get_id_from_name")) {
+      body.append("<ns1:mc_project_get_id_from_nameResponse><return xsi:type=\"xsd:integer\">1</return></ns1:mc_project_get_id_from_nameResponse>");
+    } else if (request.contains("mc_version")) {
+      body.append("<ns1:mc_versionResponse><return xsi:type=\"xsd:string\">1.2.9</return></ns1:mc_versionResponse>");
+    } else if (request.contains("mc_filter_get")) {
+      body.append("<ns1:mc_filter_getResponse><return xsi:type=\"SOAP-ENC:Array\" SOAP-ENC:arrayType=\"ns1:FilterData[1]\">")
+          .append("<item xsi:type=\"ns1:FilterData\"><id xsi:type=\"xsd:integer\">1</id><name xsi:type=\"xsd:string\">current-version</name></item>")
+          .append("</return></ns1:mc_filter_getResponse>");
+    }
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+      + "<SOAP-ENV:Envelope SOAP-ENV:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\""
+      + " xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\""
+      + " xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\""
+      + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+      + " xmlns:SOAP-ENC=\"http://schemas.xmlsoap.org/soap/encoding/\""
+      + " xmlns:ns1=\"" + MANTIS_NS + "\">"
+      + "<SOAP-ENV:Body>" + body + "</SOAP-ENV:Body></SOAP-ENV:Envelope>";
+  }
+
+  private static void soapIssue(StringBuilder body, String element, int id) {
+    body.append("<").append(element).append(" xsi:type=\"ns1:IssueData\">")
+        .append("<id xsi:type=\"xsd:integer\">").append(id).append("</id>")
+        .append(soapRef("priority", id % PRIORITIES.length, PRIORITIES[id % PRIORITIES.length]))
+        .append(soapRef("status", id % STATUS.length, STATUS[id % STATUS.length]))
+        .append("<summary xsi:type=\"xsd:string\">Issue ").append(id).append("</summary>")
+        .append("<handler xsi:type=\"ns1:AccountData\"><id xsi:type=\"xsd:integer\">").append(id % 20)
+        .append("</id><name xsi:type=\"xsd:string\">user").append(id % 20).append("</name></handler>")
+        .append("<date_submitted xsi:type=\"xsd:dateTime\">2012-06-01T10:00:00Z</date_submitted>")
+        .append("<last_updated xsi:type=\"xsd:dateTime\">2012-06-02T10:00:00Z</last_updated>")
+        .append("</").append(element).append(">");
+  }
+
+  private static String soapRef(String name, int id, String value) {
+    return "<" + name + " xsi:type=\"ns1:ObjectRef\"><id xsi:type=\"xsd:integer\">" + id + "</id><name xsi:type=\"xsd:string\">"
+      + value + "</name></" + name + ">";
+  }
+
+  private String rest(String path, String query) {
+    if (path.endsWith("/projects")) {
+      return "{\"projects\":[{\"id\":2,\"name\":\"other\",\"subProjects\":[{\"id\":3,\"name\":\"child\"}]},{\"id\":1,\"name\":\"myproject\"}]}";
+    }
+    if (path.endsWith("/filters")) {
+      return "{\"filters\":[{\"id\":1,\"name\":\"current-version\",\"criteria\":{\"status\":[10]}}]}";
+    }
+    Matcher single = Pattern.compile("/issues/(\\d+)$").matcher(path);
+    if (single.find()) {
+      String id = single.group(1);
+      return "{\"issues\":[{\"id\":" + id + ",\"summary\":\"Issue " + id + "\""
+        + ",\"reporter\":{\"id\":99,\"name\":\"customer\"}"
+        + ",\"created_at\":\"2012-06-01T10:00:00Z\",\"updated_at\":\"2012-06-03T10:00:00Z\""
+        + ",\"notes\":[{\"id\":1,\"reporter\":{\"id\":5,\"name\":\"user5\"},\"text\":\"Which version?\",\"view_state\":{\"id\":10},"
+        + "\"created_at\":\"2012-06-02T10:00:00Z\",\"updated_at\":\"2012-06-02T10:00:00Z\"},"
+        + "{\"id\":2,\"reporter\":{\"id\":99,\"name\":\"customer\"},\"text\":\"1.2\",\"attachments\":[],"
+        + "\"created_at\":\"2012-06-03T10:00:00Z\"}]}]}";
+    }
+    int perPage = intParam(query, "page_size");
+    int from = (intParam(query, "page") - 1) * perPage;
+    int to = Math.min(from + perPage, issues);
+    StringBuilder json = new StringBuilder("{\"issues\":[");
+    for (int i = from; i < to; i++) {
+      int id = issues - i;
+      if (i > from) {
+        json.append(',');
+      }
+      json.append("{\"id\":").append(id)
+          .append(",\"summary\":\"Issue ").append(id).append('"')
+          .append(",\"description\":\"long text\",\"tags\":[{\"id\":1,\"name\":\"tag\"}]")
+          .append(",\"priority\":{\"id\":").append(id % PRIORITIES.length).append(",\"name\":\"").append(PRIORITIES[id % PRIORITIES.length]).append("\",\"label\":\"x\"}")
+          .append(",\"status\":{\"id\":").append(id % STATUS.length).append(",\"name\":\"").append(STATUS[id % STATUS.length]).append("\"}")
+          .append(",\"handler\":{\"id\":").append(id % 20).append(",\"name\":\"user").append(id % 20).append("\"}")
+          .append(",\"created_at\":\"2012-06-01T12:00:00+02:00\",\"updated_at\":\"2012-06-02T10:00:00Z\"}");
+    }
+    return json.append("]}").toString();
+  }
+
+  private static int intParam(String text, String name) {
+    Matcher matcher = Pattern.compile(name + "(?:=|[^>]*>)(\\d+)").matcher(text);
+    if (!matcher.find()) {
+      throw new IllegalArgumentException("Missing " + name + " in " + text);
+    }
+    return Integer.parseInt(matcher.group(1));
+  }
+
+  private static String read(InputStream input) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = input.read(buffer)) != -1) {
+      bytes.write(buffer, 0, read);
+    }
+    return bytes.toString("UTF-8");
+  }
+
+  private static void reply(HttpExchange exchange, String contentType, String body) throws IOException {
+    byte[] bytes = body.getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(200, bytes.length);
+    OutputStream output = exchange.getResponseBody();
+    output.write(bytes);
+    output.close();
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis.predicate;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.junit.Test;
+
+import biz.futureware.mantis.rpc.soap.client.AccountData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+import biz.futureware.mantis.rpc.soap.client.ObjectRef;
+
+public class PredicateParserTest {
+
+  private static final Date NOW = new Date();
+
+  private static final long DAY = 24 * 3600 * 1000L;
+
+  private static IssueData issue(int status, String statusName, String handler, String category) {
+    IssueData issue = new IssueData();
+    issue.setId(BigInteger.valueOf(12));
+    issue.setStatus(new ObjectRef(BigInteger.valueOf(status), statusName));
+    issue.setPriority(new ObjectRef(BigInteger.valueOf(40), "high"));
+    if (handler != null) {
+      issue.setHandler(new AccountData(BigInteger.ONE, handler, handler, handler + "@example.com"));
+    }
+    issue.setCategory(category);
+    issue.setDate_submitted(daysAgo(10));
+    issue.setLast_updated(daysAgo(2));
+    return issue;
+  }
+
+  private static Calendar daysAgo(int days) {
+    Calendar date = Calendar.getInstance();
+    date.setTimeInMillis(NOW.getTime() - days * DAY - 1000);
+    return date;
+  }
+
+  @Test
+  public void testComparisons() {
+    IssueData issue = issue(50, "assigned", "jer", "Security");
+    assertThat(PredicateParser.parse("status == assigned").matches(issue, NOW), is(true));
+    assertThat(PredicateParser.parse("status == ASSIGNED").matches(issue, NOW), is(true));
+    assertThat(PredicateParser.parse("status == 50").matches(issue, NOW), is(true));
+    assertThat(PredicateParser.parse("status != 50").matches(issue, NOW), is(false));
+    assertThat(PredicateParser.parse("priority==40").matches(issue, NOW), is(true));
+    assertThat(PredicateParser.parse("category == \"Security\"").matches(issue, NOW), is(true));
+    assertThat(PredicateParser.parse("id == 12").matches(issue, NOW), is(true));
+    assertThat(PredicateParser.parse("handler == ''").matches(issue, NOW), is(false));
+    assertThat(PredicateParser.parse("handler == ''").matches(issue(50, "assigned", null, null), NOW), is(true));
+    assertThat(PredicateParser.parse("category == 'Customer reported'").matches(issue(50, "assigned", null, "Customer reported"), NOW), is(true));
+  }
+
+  @Test
+  public void testOperatorsPrecedence() {
+    IssueData issue = issue(80, "resolved", "jer", "Security");
+    assertThat(PredicateParser.parse("status == new || status == resolved && handler == jer").matches(issue, NOW), is(true));
+    assertThat(PredicateParser.parse("(status == new || status == resolved) && handler == bob").matches(issue, NOW), is(false));
+    assertThat(PredicateParser.parse("!status == resolved").matches(issue, NOW), is(false));
+    assertThat(PredicateParser.parse("!(status == new) && !!(category == security)").matches(issue, NOW), is(true));
+  }
+
+  @Test
+  public void testOrderedComparisons() {
+    IssueData issue = issue(10, "new", "jer", "Security");
+    assertThat(PredicateParser.parse("priority >= high && status == new && age > 3").matches(issue, NOW), is(true));
+    assertThat(PredicateParser.parse("priority > high").matches(issue, NOW), is(false));
+    assertThat(PredicateParser.parse("priority<=40").matches(issue, NOW), is(true));
+    assertThat(PredicateParser.parse("priority < HIGH").matches(issue, NOW), is(false));
+    assertThat(PredicateParser.parse("status < resolved").matches(issue, NOW), is(true));
+    assertThat(PredicateParser.parse("age == 10 && idle == 2").matches(issue, NOW), is(true));
+    assertThat(PredicateParser.parse("idle >= 3").matches(issue, NOW), is(false));
+    assertThat(PredicateParser.parse("id > 11 && id < 13").matches(issue, NOW), is(true));
+    // no value never matches an ordered comparison
+    assertThat(PredicateParser.parse("severity >= minor").matches(issue, NOW), is(false));
+    assertThat(PredicateParser.parse("resolution < \"won't fix\"").matches(issue, NOW), is(false));
+  }
+
+  @Test
+  public void testInvalidExpressions() {
+    String[] invalid = {"", "status", "status = new", "status ==", "colour == red", "(status == new", "status == new)",
+      "status == 'new", "status == new &&", "!= new", "category > Security", "priority > highest", "age >= old", "age =< 3"};
+    for (String expression : invalid) {
+      try {
+        PredicateParser.parse(expression);
+        fail(expression);
+      } catch (IllegalArgumentException e) {
+        assertThat(e.getMessage(), containsString("Invalid expression"));
+      }
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis.rest;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.net.SocketTimeoutException;
+import java.rmi.RemoteException;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.plugins.mantis.StubMantisServer;
+
+import biz.futureware.mantis.rpc.soap.client.FilterData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+import biz.futureware.mantis.rpc.soap.client.IssueNoteData;
+
+/**
+ * @since 0.5
+ */
+public class MantisRestServiceTest {
+
+  private StubMantisServer server;
+
+  @Before
+  public void startServer() throws Exception {
+    server = new StubMantisServer(120).start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop();
+  }
+
+  @Test
+  public void testGetIssues() throws Exception {
+    MantisRestService service = new MantisRestService(server.getUrl(), null);
+    service.connect("jer", "secret", "myproject");
+    assertThat(service.getProjectId(), is(BigInteger.ONE));
+
+    FilterData[] filters = service.getFilters();
+    assertThat(filters.length, is(1));
+    assertThat(filters[0].getName(), is("current-version"));
+
+    IssueData[] issues = service.getIssues(filters[0]);
+    assertThat(issues.length, is(120));
+    assertThat(issues[0].getId(), is(BigInteger.valueOf(120)));
+    assertThat(issues[0].getSummary(), is("Issue 120"));
+    assertThat(issues[0].getPriority().getName(), is("low"));
+    assertThat(issues[0].getStatus().getName(), is("new"));
+    assertThat(issues[0].getHandler().getName(), is("user0"));
+    assertThat(issues[0].getLast_updated().getTimeInMillis() - issues[0].getDate_submitted().getTimeInMillis(), is(24 * 3600 * 1000L));
+    service.disconnect();
+  }
+
+  @Test
+  public void testGetIssueWithNotes() throws Exception {
+    MantisRestService service = new MantisRestService(server.getUrl(), null);
+    service.connect("jer", "secret", "myproject");
+    IssueData issue = service.getIssue(BigInteger.valueOf(7));
+    assertThat(issue.getId(), is(BigInteger.valueOf(7)));
+    assertThat(issue.getReporter().getName(), is("customer"));
+    IssueNoteData[] notes = issue.getNotes();
+    assertThat(notes.length, is(2));
+    assertThat(notes[0].getReporter().getName(), is("user5"));
+    assertThat(notes[0].getText(), is("Which version?"));
+    assertThat(notes[1].getReporter().getId(), is(BigInteger.valueOf(99)));
+    assertThat(notes[1].getLast_modified(), nullValue());
+    assertThat(notes[1].getDate_submitted().after(notes[0].getDate_submitted()), is(true));
+
+    // the pages are read without notes
+    assertThat(service.getIssues(null)[0].getNotes(), nullValue());
+    service.disconnect();
+  }
+
+  @Test
+  public void testConnectionIsKeptAlive() throws Exception {
+    MantisRestService service = new MantisRestService(server.getUrl(), null);
+    service.connect("jer", "secret", "myproject");
+    service.getIssues(service.getFilters()[0]);
+    assertThat(server.getRequests(), greaterThan(3));
+    assertThat(server.getRestConnections(), is(1));
+  }
+
+  @Test(expected = RemoteException.class)
+  public void testUnknownProject() throws Exception {
+    new MantisRestService(server.getUrl(), null).connect("jer", "secret", "unknown");
+  }
+
+  @Test
+  public void testWrongToken() throws Exception {
+    try {
+      new MantisRestService(server.getUrl(), null).connect("jer", "wrong", "myproject");
+      fail();
+    } catch (RemoteException e) {
+      assertThat(e.getMessage(), containsString("401"));
+    }
+  }
+
+  @Test
+  public void testReadTimeout() throws Exception {
+    server.setRestDelay(5000);
+    long start = System.currentTimeMillis();
+    try {
+      new MantisRestService(server.getUrl(), null, 1000, 200).connect("jer", "secret", "myproject");
+      fail();
+    } catch (RemoteException e) {
+      assertThat(e.getCause(), instanceOf(SocketTimeoutException.class));
+    }
+    assertThat(System.currentTimeMillis() - start, lessThan(4000L));
+  }
+
+  @Test
+  public void testParseDate() throws Exception {
+    Calendar date = MantisJsonReader.parseDate("2012-06-01T12:00:00+02:00");
+    date.setTimeZone(TimeZone.getTimeZone("UTC"));
+    assertThat(date.get(Calendar.HOUR_OF_DAY), is(10));
+    date = MantisJsonReader.parseDate("2012-06-02T10:00:00Z");
+    date.setTimeZone(TimeZone.getTimeZone("UTC"));
+    assertThat(date.get(Calendar.HOUR_OF_DAY), is(10));
+  }
+}
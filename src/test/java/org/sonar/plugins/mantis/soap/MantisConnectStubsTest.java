@@ -0,0 +1,115 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis.soap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.rpc.ServiceException;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.mantis.StubMantisServer;
+
+import biz.futureware.mantis.rpc.soap.client.MantisConnectLocator;
+import biz.futureware.mantis.rpc.soap.client.MantisConnectPortType;
+
+/**
+ * @since 0.5
+ */
+public class MantisConnectStubsTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MantisConnectStubsTest.class);
+
+  @Test
+  public void testStubsAreRecycled() throws Exception {
+    URL url = new URL("http://localhost:1234/mantis/api/soap/mantisconnect.php");
+    MantisConnectStubs stubs = new MantisConnectStubs(new MantisConnectLocator());
+    MantisConnectPortType first = stubs.borrow(url);
+    MantisConnectPortType second = stubs.borrow(url);
+    assertThat(second, not(sameInstance(first)));
+    stubs.giveBack(url, first);
+    assertThat(stubs.borrow(url), sameInstance(first));
+  }
+
+  @Test
+  public void testServicesShareTheLocator() throws Exception {
+    URL url = new URL("http://localhost:1235/mantis/api/soap/mantisconnect.php");
+    MantisConnectLocator locator = mock(MantisConnectLocator.class);
+    MantisConnectPortType portType = mock(MantisConnectPortType.class);
+    when(locator.getMantisConnectPort(any(URL.class))).thenReturn(portType);
+    MantisConnectStubs stubs = new MantisConnectStubs(locator);
+    for (int i = 0; i < 10; i++) {
+      new MantisSoapService(url, null, stubs).disconnect();
+    }
+    assertThat(stubs.getCreatedStubs(), is(1));
+    verify(locator, times(1)).getMantisConnectPort(url);
+  }
+
+  @Test
+  public void testStubIsCreatedOnceForSeveralAnalyses() throws Exception {
+    StubMantisServer server = new StubMantisServer(120).start();
+    try {
+      URL url = new URL(server.getUrl() + "/api/soap/mantisconnect.php");
+      final AtomicInteger ports = new AtomicInteger();
+      MantisConnectStubs stubs = new MantisConnectStubs(new MantisConnectLocator() {
+        @Override
+        public MantisConnectPortType getMantisConnectPort(URL portAddress) throws ServiceException {
+          ports.incrementAndGet();
+          return super.getMantisConnectPort(portAddress);
+        }
+      });
+      long cold = analyse(url, stubs);
+      long warm = analyse(url, stubs);
+      // the saving depends on the machine, it is only reported
+      LOG.info("Analysis with a new Axis stub: {} ms, with a recycled one: {} ms", cold, warm);
+      assertThat(ports.get(), is(1));
+      assertThat(stubs.getCreatedStubs(), is(1));
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static long analyse(URL url, MantisConnectStubs stubs) throws Exception {
+    long start = System.currentTimeMillis();
+    MantisSoapService service = new MantisSoapService(url, null, stubs);
+    service.connect("jer", "pwd", "myproject");
+    assertThat(service.getIssues(service.getFilters()[0]).length, is(120));
+    service.disconnect();
+    return System.currentTimeMillis() - start;
+  }
+
+  @Test
+  public void testSharedStubs() {
+    assertThat(MantisConnectStubs.getShared(), sameInstance(MantisConnectStubs.getShared()));
+  }
+}
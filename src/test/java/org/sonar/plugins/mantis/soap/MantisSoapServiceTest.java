@@ -0,0 +1,346 @@
+/*
+ * Sonar Mantis Plugin
+ * Copyright (C) 2011 Jérémie Lagarde
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.mantis.soap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.net.URL;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.plugins.mantis.FetchJournal;
+import org.sonar.plugins.mantis.HedgingPolicy;
+import org.sonar.plugins.mantis.IssueDetailLoader;
+import org.sonar.plugins.mantis.LongHashSet;
+import org.sonar.plugins.mantis.StubMantisServer;
+
+import biz.futureware.mantis.rpc.soap.client.FilterData;
+import biz.futureware.mantis.rpc.soap.client.IssueData;
+import biz.futureware.mantis.rpc.soap.client.MantisConnectLocator;
+import biz.futureware.mantis.rpc.soap.client.MantisConnectPortType;
+
+/**
+ * @since 0.5
+ */
+public class MantisSoapServiceTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void testGetIssuesStopsOnRepeatedLastPage() throws Exception {
+    FakeMantis mantis = new FakeMantis(120);
+    IssueData[] issues = createService(mantis).getIssues(null);
+    assertThat(issues.length, is(120));
+  }
+
+  @Test
+  public void testGetIssuesWithExactlyFullPages() throws Exception {
+    FakeMantis mantis = new FakeMantis(100);
+    MantisSoapService service = createService(mantis);
+    assertThat(service.getIssues(null).length, is(100));
+    assertThat(service.getDuplicatesRemoved(), is(0));
+  }
+
+  @Test
+  public void testGetIssuesRemovesDuplicatesWhenIssuesAreUpdated() throws Exception {
+    FakeMantis mantis = new FakeMantis(120) {
+      @Override
+      void beforePage(int call) {
+        if (call == 2) {
+          // a new issue is reported while reading the first page
+          ids.add(0, 1000L);
+        }
+      }
+    };
+    MantisSoapService service = createService(mantis);
+    IssueData[] issues = service.getIssues(null);
+    assertThat(issues.length, is(121));
+    assertThat(distinct(issues), is(121));
+  }
+
+  @Test
+  public void testGetIssuesRecoversSkippedIssues() throws Exception {
+    FakeMantis mantis = new FakeMantis(120) {
+      @Override
+      void beforePage(int call) {
+        if (call == 2) {
+          // two issues of the first page are closed and leave the filter
+          ids.remove(0);
+          ids.remove(0);
+        }
+      }
+    };
+    IssueData[] issues = createService(mantis).getIssues(null);
+    assertThat(issues.length, is(120));
+    assertThat(distinct(issues), is(120));
+  }
+
+  @Test
+  public void testGetIssuesGoesOnAfterAPageOfDuplicates() throws Exception {
+    FakeMantis mantis = new FakeMantis(200) {
+      @Override
+      void beforePage(int call) {
+        if (call == 2) {
+          // 50 issues are reported while reading the first page, which becomes the second one
+          for (long id = 1001; id <= 1050; id++) {
+            ids.add(0, id);
+          }
+        }
+      }
+    };
+    IssueData[] issues = createService(mantis).getIssues(null);
+    assertThat(issues.length, is(250));
+    assertThat(distinct(issues), is(250));
+  }
+
+  @Test
+  public void testGetIssuesResumesFromJournal() throws Exception {
+    File journalFile = temp.newFile("fetch.journal");
+    final boolean[] down = {true};
+    final List<Integer> pagesRead = new ArrayList<Integer>();
+    FakeMantis mantis = new FakeMantis(300) {
+      @Override
+      public IssueData[] answer(InvocationOnMock invocation) {
+        int page = ((BigInteger) invocation.getArguments()[3]).intValue();
+        int count = ((BigInteger) invocation.getArguments()[4]).intValue();
+        if (down[0] && (count == 50 ? page >= 3 : page > 100)) {
+          throw new IllegalStateException("Connection reset");
+        }
+        if (count == 50) {
+          pagesRead.add(page);
+        }
+        return super.answer(invocation);
+      }
+    };
+
+    MantisSoapService service = createService(mantis);
+    service.setJournal(new FetchJournal(journalFile, "myproject", 60000));
+    try {
+      service.getIssues(null);
+      fail();
+    } catch (RemoteException e) {
+      assertThat(e.getMessage(), containsString("page 3"));
+    }
+    assertThat(pagesRead, is(Arrays.asList(1, 2)));
+
+    down[0] = false;
+    pagesRead.clear();
+    service.setJournal(new FetchJournal(journalFile, "myproject", 60000));
+    IssueData[] issues = service.getIssues(null);
+    assertThat(issues.length, is(300));
+    assertThat(distinct(issues), is(300));
+    assertThat(pagesRead.get(0), is(3));
+    assertThat(journalFile.exists(), is(false));
+  }
+
+  @Test
+  public void testGetIssuesFromStubServer() throws Exception {
+    StubMantisServer server = new StubMantisServer(120).start();
+    try {
+      MantisSoapService service = new MantisSoapService(new URL(server.getUrl() + "/api/soap/mantisconnect.php"));
+      service.connect("jer", "pwd", "myproject");
+      assertThat(service.getProjectId(), is(BigInteger.ONE));
+      FilterData[] filters = service.getFilters();
+      assertThat(filters[0].getName(), is("current-version"));
+      IssueData[] issues = service.getIssues(filters[0]);
+      assertThat(issues.length, is(120));
+      assertThat(distinct(issues), is(120));
+      assertThat(issues[0].getPriority().getName(), is("low"));
+      assertThat(issues[0].getHandler().getName(), is("user0"));
+      service.disconnect();
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testLoadDetailsConcurrentlyFromStubServer() throws Exception {
+    StubMantisServer server = new StubMantisServer(200).start();
+    try {
+      MantisSoapService service = new MantisSoapService(new URL(server.getUrl() + "/api/soap/mantisconnect.php"), null,
+          new MantisConnectStubs(new MantisConnectLocator()));
+      service.connect("jer", "pwd", "myproject");
+      IssueData[] issues = service.getIssues(null);
+      Map<BigInteger, IssueData> details = new IssueDetailLoader(service, 8).load(Arrays.asList(issues));
+      assertThat(details.size(), is(200));
+      for (Map.Entry<BigInteger, IssueData> detail : details.entrySet()) {
+        assertThat(detail.getValue().getId(), is(detail.getKey()));
+        assertThat(detail.getValue().getSummary(), is("Issue " + detail.getKey()));
+      }
+      service.disconnect();
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testConcurrentCallsUseTheirOwnStub() throws Exception {
+    AtomicBoolean overlap = new AtomicBoolean();
+    MantisConnectStubs stubs = overlapCheckingStubs(overlap, new Answer<Object>() {
+      public Object answer(InvocationOnMock invocation) throws Exception {
+        Thread.sleep(5);
+        IssueData issue = new IssueData();
+        issue.setId((BigInteger) invocation.getArguments()[2]);
+        return issue;
+      }
+    });
+    MantisSoapService service = new MantisSoapService(null, null, stubs);
+    List<IssueData> issues = new ArrayList<IssueData>();
+    for (int i = 1; i <= 40; i++) {
+      IssueData issue = new IssueData();
+      issue.setId(BigInteger.valueOf(i));
+      issues.add(issue);
+    }
+    assertThat(new IssueDetailLoader(service, 8).load(issues).size(), is(40));
+    assertThat(overlap.get(), is(false));
+    assertThat(stubs.getCreatedStubs(), greaterThan(1));
+  }
+
+  @Test
+  public void testHedgedPageUsesItsOwnStub() throws Exception {
+    final AtomicBoolean slowed = new AtomicBoolean();
+    AtomicBoolean overlap = new AtomicBoolean();
+    MantisConnectStubs stubs = overlapCheckingStubs(overlap, new Answer<Object>() {
+      public Object answer(InvocationOnMock invocation) throws Exception {
+        int page = ((BigInteger) invocation.getArguments()[3]).intValue();
+        int count = ((BigInteger) invocation.getArguments()[4]).intValue();
+        if (page == 7 && count == 50 && slowed.compareAndSet(false, true)) {
+          Thread.sleep(3000);
+        }
+        // 400 issues, the last page is repeated past the end
+        page = Math.min(page, (400 + count - 1) / count);
+        IssueData[] issues = new IssueData[count];
+        for (int i = 0; i < count; i++) {
+          issues[i] = new IssueData();
+          issues[i].setId(BigInteger.valueOf(400 - (page - 1) * count - i));
+        }
+        return issues;
+      }
+    });
+    MantisSoapService service = new MantisSoapService(null, null, stubs);
+    HedgingPolicy hedging = new HedgingPolicy(50, 1);
+    service.setHedgingPolicy(hedging);
+    IssueData[] issues = service.getIssues(null);
+    assertThat(distinct(issues), is(400));
+    assertThat(hedging.getHedges(), greaterThan(0));
+    assertThat(overlap.get(), is(false));
+  }
+
+  /**
+   * Stubs answering every call with the given answer, flagging a call made while another one runs on the same stub.
+   */
+  private static MantisConnectStubs overlapCheckingStubs(final AtomicBoolean overlap, final Answer<Object> answer) {
+    return new MantisConnectStubs(new MantisConnectLocator() {
+      @Override
+      public MantisConnectPortType getMantisConnectPort() {
+        final AtomicInteger calls = new AtomicInteger();
+        return mock(MantisConnectPortType.class, new Answer<Object>() {
+          public Object answer(InvocationOnMock invocation) throws Throwable {
+            if (calls.incrementAndGet() > 1) {
+              overlap.set(true);
+            }
+            try {
+              return answer.answer(invocation);
+            } finally {
+              calls.decrementAndGet();
+            }
+          }
+        });
+      }
+    });
+  }
+
+  private static int distinct(IssueData[] issues) {
+    LongHashSet set = new LongHashSet();
+    for (IssueData issue : issues) {
+      set.add(issue.getId().longValue());
+    }
+    return set.size();
+  }
+
+  private static MantisSoapService createService(final FakeMantis mantis) throws Exception {
+    final MantisConnectPortType portType = mock(MantisConnectPortType.class);
+    when(portType.mc_project_get_id_from_name("jer", "pwd", "myproject")).thenReturn(BigInteger.ONE);
+    when(portType.mc_project_get_issues(anyString(), anyString(), any(BigInteger.class), any(BigInteger.class), any(BigInteger.class)))
+        .thenAnswer(mantis);
+    MantisConnectLocator locator = mock(MantisConnectLocator.class);
+    when(locator.getMantisConnectPort()).thenReturn(portType);
+    MantisSoapService service = new MantisSoapService(null, null, new MantisConnectStubs(locator));
+    service.connect("jer", "pwd", "myproject");
+    return service;
+  }
+
+  /**
+   * Pages a mutable list of issue ids the way Mantis does: page numbers past the end answer the last page.
+   */
+  static class FakeMantis implements Answer<IssueData[]> {
+
+    final List<Long> ids = new ArrayList<Long>();
+    private int calls;
+
+    FakeMantis(int count) {
+      for (long i = count; i > 0; i--) {
+        ids.add(i);
+      }
+    }
+
+    void beforePage(int call) {
+    }
+
+    public IssueData[] answer(InvocationOnMock invocation) {
+      beforePage(++calls);
+      int page = ((BigInteger) invocation.getArguments()[3]).intValue();
+      int count = ((BigInteger) invocation.getArguments()[4]).intValue();
+      int pageCount = Math.max(1, (ids.size() + count - 1) / count);
+      page = Math.min(page, pageCount);
+      int from = (page - 1) * count;
+      int to = Math.min(from + count, ids.size());
+      List<IssueData> result = new ArrayList<IssueData>();
+      for (int i = from; i < to; i++) {
+        IssueData issue = new IssueData();
+        issue.setId(BigInteger.valueOf(ids.get(i)));
+        result.add(issue);
+      }
+      return result.toArray(new IssueData[result.size()]);
+    }
+  }
+}